@@ -0,0 +1,38 @@
+package com.potato.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saved sample pages for the benchmarks (src/jmh/resources/corpus, listed in
+ * index.txt): article pages of a news site, listing pages of a shop and old
+ * style forum threads, each set sharing its site's template like real crawl
+ * output does.
+ */
+final class Corpus {
+
+    private Corpus() {
+    }
+
+    static List<byte[]> pages() throws IOException {
+        List<byte[]> pages = new ArrayList<>();
+        for (String name : read("index.txt").split("\n")) {
+            if (!name.isBlank()) {
+                pages.add(read(name.trim()).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return pages;
+    }
+
+    private static String read(String name) throws IOException {
+        try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name)) {
+            if (in == null) {
+                throw new IOException("Missing corpus file " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.potato.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.potato.storage.DictionaryTrainer;
+
+/**
+ * Page body compression in SegmentPageStorage: deflate with a preset
+ * dictionary from DictionaryTrainer against plain deflate, same level.
+ *
+ * The dictionary is trained on every other corpus page and the other half
+ * is compressed, so the pages measured were not part of the training set
+ * (as in the store, where a dictionary is used for the pages after its
+ * samples). The compressed size of the measured pages is printed once per
+ * run; the benchmarks give the time per page both ways.
+ *
+ *   java -jar target/benchmarks.jar DictionaryDeflate
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DictionaryDeflateBenchmark {
+
+    // same level as SegmentPageStorage
+    private static final int LEVEL = 3;
+
+    @Param({"plain", "dictionary"})
+    public String mode;
+
+    private byte[] dictionary;
+    private final List<byte[]> pages = new ArrayList<>();
+    private final List<byte[]> compressed = new ArrayList<>();
+    private final Deflater deflater = new Deflater(LEVEL);
+    private final Inflater inflater = new Inflater();
+    private final byte[] buf = new byte[16 * 1024];
+    private byte[] inflated;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException, DataFormatException {
+        List<byte[]> corpus = Corpus.pages();
+        List<byte[]> samples = new ArrayList<>();
+        int maxLength = 0;
+        for (int i = 0; i < corpus.size(); i++) {
+            (i % 2 == 0 ? samples : pages).add(corpus.get(i));
+            maxLength = Math.max(maxLength, corpus.get(i).length);
+        }
+        dictionary = mode.equals("dictionary") ? DictionaryTrainer.train(samples) : null;
+        inflated = new byte[maxLength];
+
+        long raw = 0;
+        long packed = 0;
+        for (byte[] page : pages) {
+            byte[] c = deflate(page);
+            compressed.add(c);
+            raw += page.length;
+            packed += c.length;
+            if (inflate(c) != page.length) {
+                throw new IllegalStateException("round trip failed");
+            }
+        }
+        System.out.printf("%n%s: %d pages, %d bytes -> %d bytes (%.1f%%), dictionary %d bytes%n",
+                mode, pages.size(), raw, packed, 100.0 * packed / raw,
+                (dictionary != null) ? dictionary.length : 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        deflater.end();
+        inflater.end();
+    }
+
+    @Benchmark
+    public int compress() {
+        int i = next;
+        next = (next + 1) % pages.size();
+        return deflate(pages.get(i)).length;
+    }
+
+    @Benchmark
+    public int decompress() throws DataFormatException {
+        int i = next;
+        next = (next + 1) % pages.size();
+        return inflate(compressed.get(i));
+    }
+
+    private byte[] deflate(byte[] in) {
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(in);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(in.length / 4 + 64);
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf);
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    // returns the inflated length
+    private int inflate(byte[] in) throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(in);
+        int n = 0;
+        while (!inflater.finished()) {
+            int r = inflater.inflate(inflated, n, inflated.length - n);
+            if (r == 0 && inflater.needsDictionary()) {
+                inflater.setDictionary(dictionary);
+            } else if (r == 0 && (inflater.needsInput() || n == inflated.length)) {
+                throw new DataFormatException("truncated");
+            }
+            n += r;
+        }
+        return n;
+    }
+}
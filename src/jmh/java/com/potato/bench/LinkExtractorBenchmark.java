@@ -0,0 +1,90 @@
+package com.potato.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.potato.parser.HtmlParser;
+import com.potato.util.ParsedUrl;
+
+/**
+ * Parsing a fetched page for title, links and text: the streaming
+ * LinkExtractor (crawler.parserMode=streaming) against the Jsoup DOM
+ * (crawler.parserMode=jsoup), over the saved corpus.
+ *
+ * Setup first checks that both parsers find the same links on every page
+ * (after the normalization enqueue() applies, which the streaming extractor
+ * already does itself), so the timings compare equal work.
+ *
+ *   java -jar target/benchmarks.jar LinkExtractor
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class LinkExtractorBenchmark {
+
+    @Param({"streaming", "jsoup"})
+    public String parserMode;
+
+    private HtmlParser parser;
+    private final List<String> pages = new ArrayList<>();
+    private final List<String> urls = new ArrayList<>();
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        for (byte[] page : Corpus.pages()) {
+            pages.add(new String(page, StandardCharsets.UTF_8));
+            urls.add("https://example.com/page/" + urls.size() + ".html");
+        }
+        parser = new HtmlParser(parserMode.equals("streaming"));
+
+        HtmlParser streaming = new HtmlParser(true);
+        HtmlParser jsoup = new HtmlParser(false);
+        for (int i = 0; i < pages.size(); i++) {
+            HtmlParser.ParsedPage a = streaming.parse(pages.get(i), urls.get(i));
+            HtmlParser.ParsedPage b = jsoup.parse(pages.get(i), urls.get(i));
+            if (!normalized(a.links).equals(normalized(b.links))) {
+                throw new IllegalStateException("parsers disagree on the links of corpus page " + i);
+            }
+        }
+    }
+
+    // the URLs the crawler would enqueue
+    private static Set<String> normalized(Set<String> links) {
+        Set<String> out = new HashSet<>();
+        for (String link : links) {
+            ParsedUrl url = ParsedUrl.parse(link);
+            if (url != null) {
+                out.add(url.url);
+            }
+        }
+        return out;
+    }
+
+    @Benchmark
+    public HtmlParser.ParsedPage parse() {
+        int i = next;
+        next = (next + 1) % pages.size();
+        return parser.parse(pages.get(i), urls.get(i));
+    }
+}
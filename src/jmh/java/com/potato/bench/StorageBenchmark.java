@@ -0,0 +1,133 @@
+package com.potato.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.potato.parser.HtmlParser;
+import com.potato.storage.FilePageStorage;
+import com.potato.storage.PageStorage;
+import com.potato.storage.SegmentPageStorage;
+import com.potato.storage.StoredPage;
+
+/**
+ * Writing crawled pages: the old per-page files (crawler.storage=files,
+ * FilePageStorage: one .html and one .json per page) against the segment
+ * store (SegmentPageStorage), with and without dictionary compression.
+ *
+ * One operation saves the whole corpus under fresh URLs with a single
+ * saveBatch() call, which for FilePageStorage is a save() per page. Every
+ * iteration starts with an empty directory; at its end the bytes and files
+ * on disk are printed per page (also rounded up to 4 KiB blocks per file,
+ * which is what many small files really cost), so both write throughput
+ * and disk use can be compared.
+ *
+ *   java -jar target/benchmarks.jar Storage
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+
+    // crawler.storageSegmentBytes default
+    private static final long SEGMENT_BYTES = 256L * 1024 * 1024;
+    // typical file system block: small files take at least this much
+    private static final long BLOCK = 4096;
+
+    @Param({"files", "segments-raw", "segments"})
+    public String storage;
+
+    private final List<String> html = new ArrayList<>();
+    private final List<HtmlParser.ParsedPage> parsed = new ArrayList<>();
+    private long rawBytes = 0;
+    private Path dir;
+    private PageStorage target;
+    private long pagesWritten;
+    private long next = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        HtmlParser parser = new HtmlParser(true);
+        for (byte[] page : Corpus.pages()) {
+            String text = new String(page, StandardCharsets.UTF_8);
+            html.add(text);
+            rawBytes += page.length;
+            parsed.add(parser.parse(text, "https://example.com/page/" + parsed.size() + ".html"));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void openStorage() throws IOException {
+        dir = Files.createTempDirectory("storage-bench");
+        target = switch (storage) {
+            case "files" -> new FilePageStorage(dir.toString());
+            case "segments-raw" -> new SegmentPageStorage(dir.toString(), SEGMENT_BYTES, false);
+            default -> new SegmentPageStorage(dir.toString(), SEGMENT_BYTES, true);
+        };
+        pagesWritten = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeStorage() throws IOException {
+        target.close();
+        long bytes = 0;
+        long blocks = 0;
+        long files = 0;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(p)) {
+                    long size = Files.size(p);
+                    bytes += size;
+                    blocks += (size + BLOCK - 1) / BLOCK;
+                    files++;
+                }
+            }
+        }
+        System.out.printf("%n%s: %d pages, html %.0f bytes/page, on disk %.0f bytes/page"
+                        + " (%.0f in 4 KiB blocks), %d files%n",
+                storage, pagesWritten, (double) rawBytes / html.size(), (double) bytes / pagesWritten,
+                (double) blocks * BLOCK / pagesWritten, files);
+
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    @Benchmark
+    public long saveCorpus() throws IOException {
+        List<StoredPage> batch = new ArrayList<>(html.size());
+        for (int i = 0; i < html.size(); i++) {
+            HtmlParser.ParsedPage page = parsed.get(i);
+            String url = "https://example.com/page/" + (next++) + ".html";
+            batch.add(new StoredPage(url, page.title, html.get(i), new ArrayList<>(page.links)));
+        }
+        target.saveBatch(batch);
+        pagesWritten += batch.size();
+        return pagesWritten;
+    }
+}
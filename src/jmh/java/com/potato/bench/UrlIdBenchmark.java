@@ -0,0 +1,58 @@
+package com.potato.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.potato.util.UrlIdScheme;
+
+/**
+ * Cost of turning a URL into a page ID (file names), per crawler.urlIdScheme.
+ *
+ *   java -jar target/benchmarks.jar UrlId
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlIdBenchmark {
+
+    @Param({"SHA1", "MURMUR128"})
+    public UrlIdScheme scheme;
+
+    private String[] urls;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        // typical crawl URLs: short paths, deep paths, long query strings
+        urls = new String[1024];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = switch (i % 4) {
+                case 0 -> "https://example.com/" + i;
+                case 1 -> "https://www.example.org/news/2024/05/" + i + "/some-article-title-with-words.html";
+                case 2 -> "https://shop.example.net/search?q=shoes&color=red&size=" + i + "&sort=price_asc&page=3";
+                default -> "http://blog.example.com/tag/java/page/" + i + "/";
+            };
+        }
+    }
+
+    @Benchmark
+    public String id() {
+        String url = urls[next];
+        next = (next + 1) & (urls.length - 1);
+        return scheme.id(url);
+    }
+}
@@ -1,73 +1,151 @@
-package com.potato.config;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.HashSet;
-import java.util.Properties;
-import java.util.Set;
-
-public class ConfigLoader {
-
-    public static CrawlerConfig load() {
-        // try-with-resources: load the main config file from the classpath
-        try (InputStream in = ConfigLoader.class.getClassLoader()
-                .getResourceAsStream("application.properties")) {
-
-            Properties props = new Properties();
-            // if the file exists, load all key/value pairs
-            if (in != null) {
-                props.load(in);
-            }
-
-            // read basic crawler settings, with sensible defaults if missing
-            int maxPages = Integer.parseInt(props.getProperty("crawler.maxPages", "100"));
-            int maxDepth = Integer.parseInt(props.getProperty("crawler.maxDepth", "2"));
-            String userAgent = props.getProperty("crawler.userAgent", "PotatorCrawler/1.0");
-            long politenessMs = Long.parseLong(props.getProperty("crawler.politenessMs", "500"));
-            String allowedHostsFile = props.getProperty("crawler.allowedHostsFile", null);
-
-            int fetchRetries = Integer.parseInt(props.getProperty("crawler.fetchRetries", "3"));
-            long fetchBackoffMs = Long.parseLong(props.getProperty("crawler.fetchBackoffMs", "500"));
-            String proxyHost = props.getProperty("crawler.proxyHost", "");
-            int proxyPort = Integer.parseInt(props.getProperty("crawler.proxyPort", "0"));
-
-            // if a separate allowed-hosts file is defined, read it line by line
-            Set<String> allowedHosts = new HashSet<>();
-            if (allowedHostsFile != null) {
-                try (InputStream hostsIn = ConfigLoader.class.getClassLoader()
-                        .getResourceAsStream(allowedHostsFile)) {
-                    if (hostsIn != null) {
-                        try (BufferedReader br = new BufferedReader(new InputStreamReader(hostsIn))) {
-                            String line;
-                            while ((line = br.readLine()) != null) {
-                                line = line.trim();
-                                if (!line.isEmpty() && !line.startsWith("#")) {
-                                    allowedHosts.add(line.toLowerCase());
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-
-            // finally, build the immutable CrawlerConfig object with everything we read
-            return new CrawlerConfig(
-                    maxPages,
-                    maxDepth,
-                    userAgent,
-                    politenessMs,
-                    allowedHosts,
-                    fetchRetries,
-                    fetchBackoffMs,
-                    proxyHost,
-                    proxyPort
-            );
-
-        } catch (IOException e) {
-            // wrap checked exception so callers don't have to handle it
-            throw new RuntimeException("Failed to load configuration", e);
-        }
-    }
-}
+package com.potato.config;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import com.potato.util.UrlIdScheme;
+
+public class ConfigLoader {
+
+    public static CrawlerConfig load() {
+        // try-with-resources: load the main config file from the classpath
+        try (InputStream in = ConfigLoader.class.getClassLoader()
+                .getResourceAsStream("application.properties")) {
+
+            Properties props = new Properties();
+            // if the file exists, load all key/value pairs
+            if (in != null) {
+                props.load(in);
+            }
+
+            // read basic crawler settings, with sensible defaults if missing
+            int maxPages = Integer.parseInt(props.getProperty("crawler.maxPages", "100"));
+            int maxDepth = Integer.parseInt(props.getProperty("crawler.maxDepth", "2"));
+            String userAgent = props.getProperty("crawler.userAgent", "PotatorCrawler/1.0");
+            long politenessMs = Long.parseLong(props.getProperty("crawler.politenessMs", "500"));
+            String allowedHostsFile = props.getProperty("crawler.allowedHostsFile", null);
+
+            int fetchRetries = Integer.parseInt(props.getProperty("crawler.fetchRetries", "3"));
+            long fetchBackoffMs = Long.parseLong(props.getProperty("crawler.fetchBackoffMs", "500"));
+            String proxyHost = props.getProperty("crawler.proxyHost", "");
+            int proxyPort = Integer.parseInt(props.getProperty("crawler.proxyPort", "0"));
+            long maxPageBytes = Long.parseLong(props.getProperty("crawler.maxPageBytes", "1000000"));
+
+            CrawlerConfig.WorkerMode workerMode = CrawlerConfig.WorkerMode.valueOf(
+                    props.getProperty("crawler.workerMode", "platform").trim().toUpperCase());
+            int workerThreads = Integer.parseInt(props.getProperty("crawler.threads", "4"));
+            int maxConcurrency = Integer.parseInt(props.getProperty("crawler.maxConcurrency", "1000"));
+            int maxInFlightPerHost = Integer.parseInt(props.getProperty("crawler.maxInFlightPerHost", "2"));
+
+            int frontierMemoryEntries = Integer.parseInt(props.getProperty("crawler.frontierMemoryEntries", "100000"));
+            String frontierSpillDir = props.getProperty("crawler.frontierSpillDir", "");
+
+            long seenExpectedUrls = Long.parseLong(props.getProperty("crawler.seenExpectedUrls", "1000000"));
+
+            boolean continuous = Boolean.parseBoolean(props.getProperty("crawler.continuous", "false"));
+            long revisitInitialSeconds = Long.parseLong(props.getProperty("crawler.revisitInitialSeconds", "86400"));
+            long revisitMinSeconds = Long.parseLong(props.getProperty("crawler.revisitMinSeconds", "300"));
+            long revisitMaxSeconds = Long.parseLong(props.getProperty("crawler.revisitMaxSeconds", "2592000"));
+
+            CrawlerConfig.StorageFormat storageFormat = CrawlerConfig.StorageFormat.valueOf(
+                    props.getProperty("crawler.storageFormat", "segments").trim().toUpperCase());
+            long storageSegmentBytes = Long.parseLong(props.getProperty("crawler.storageSegmentBytes", "268435456"));
+            boolean storageCompress = Boolean.parseBoolean(props.getProperty("crawler.storageCompress", "true"));
+            int storageQueueCapacity = Integer.parseInt(props.getProperty("crawler.storageQueueCapacity", "1024"));
+            int storageWriterThreads = Integer.parseInt(props.getProperty("crawler.storageWriterThreads", "1"));
+
+            int nearDupMaxDistance = Integer.parseInt(props.getProperty("crawler.nearDupMaxDistance", "3"));
+            int nearDupMinPages = Integer.parseInt(props.getProperty("crawler.nearDupMinPages", "20"));
+            double nearDupDemoteRatio = Double.parseDouble(props.getProperty("crawler.nearDupDemoteRatio", "0.3"));
+            double nearDupDropRatio = Double.parseDouble(props.getProperty("crawler.nearDupDropRatio", "0.7"));
+            long nearDupMaxFingerprints = Long.parseLong(props.getProperty("crawler.nearDupMaxFingerprints", "2000000"));
+
+            UrlIdScheme urlIdScheme = UrlIdScheme.valueOf(
+                    props.getProperty("crawler.urlIdScheme", "sha1").trim().toUpperCase());
+
+            CrawlerConfig.ParserMode parserMode = CrawlerConfig.ParserMode.valueOf(
+                    props.getProperty("crawler.parserMode", "streaming").trim().toUpperCase());
+
+            int parseThreads = Integer.parseInt(props.getProperty("crawler.parseThreads", "0"));
+            int parseQueueCapacity = Integer.parseInt(props.getProperty("crawler.parseQueueCapacity", "64"));
+            int enqueueThreads = Integer.parseInt(props.getProperty("crawler.enqueueThreads", "1"));
+            int enqueueQueueCapacity = Integer.parseInt(props.getProperty("crawler.enqueueQueueCapacity", "1024"));
+
+            int robotsCacheSize = Integer.parseInt(props.getProperty("crawler.robotsCacheSize", "10000"));
+            long robotsTtlSeconds = Long.parseLong(props.getProperty("crawler.robotsTtlSeconds", "86400"));
+            long robotsErrorTtlSeconds = Long.parseLong(props.getProperty("crawler.robotsErrorTtlSeconds", "600"));
+
+            // if a separate allowed-hosts file is defined, read it line by line
+            Set<String> allowedHosts = new HashSet<>();
+            if (allowedHostsFile != null) {
+                try (InputStream hostsIn = ConfigLoader.class.getClassLoader()
+                        .getResourceAsStream(allowedHostsFile)) {
+                    if (hostsIn != null) {
+                        try (BufferedReader br = new BufferedReader(new InputStreamReader(hostsIn))) {
+                            String line;
+                            while ((line = br.readLine()) != null) {
+                                line = line.trim();
+                                if (!line.isEmpty() && !line.startsWith("#")) {
+                                    allowedHosts.add(line.toLowerCase());
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+            // finally, build the immutable CrawlerConfig object with everything we read
+            return new CrawlerConfig(
+                    maxPages,
+                    maxDepth,
+                    userAgent,
+                    politenessMs,
+                    allowedHosts,
+                    fetchRetries,
+                    fetchBackoffMs,
+                    proxyHost,
+                    proxyPort,
+                    maxPageBytes,
+                    workerMode,
+                    workerThreads,
+                    maxConcurrency,
+                    maxInFlightPerHost,
+                    frontierMemoryEntries,
+                    frontierSpillDir,
+                    seenExpectedUrls,
+                    continuous,
+                    revisitInitialSeconds,
+                    revisitMinSeconds,
+                    revisitMaxSeconds,
+                    storageFormat,
+                    storageSegmentBytes,
+                    storageCompress,
+                    storageQueueCapacity,
+                    storageWriterThreads,
+                    nearDupMaxDistance,
+                    nearDupMinPages,
+                    nearDupDemoteRatio,
+                    nearDupDropRatio,
+                    nearDupMaxFingerprints,
+                    urlIdScheme,
+                    parserMode,
+                    parseThreads,
+                    parseQueueCapacity,
+                    enqueueThreads,
+                    enqueueQueueCapacity,
+                    robotsCacheSize,
+                    robotsTtlSeconds,
+                    robotsErrorTtlSeconds
+            );
+
+        } catch (IOException e) {
+            // wrap checked exception so callers don't have to handle it
+            throw new RuntimeException("Failed to load configuration", e);
+        }
+    }
+}
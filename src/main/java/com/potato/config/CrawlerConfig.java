@@ -1,89 +1,392 @@
-package com.potato.config;
-
-import java.util.Collections;
-import java.util.Set;
-
-public class CrawlerConfig {
-
-    private final int maxPages;
-    private final int maxDepth;
-    private final String userAgent;
-    private final long politenessMs;
-    private final Set<String> allowedHosts;
-
-    private final int fetchRetries;
-    private final long fetchBackoffMs;
-    private final String proxyHost;
-    private final int proxyPort;
-
-    public CrawlerConfig(int maxPages,
-                         int maxDepth,
-                         String userAgent,
-                         long politenessMs,
-                         Set<String> allowedHosts,
-                         int fetchRetries,
-                         long fetchBackoffMs,
-                         String proxyHost,
-                         int proxyPort) {
-        this.maxPages = maxPages;
-        this.maxDepth = maxDepth;
-        this.userAgent = userAgent;
-        this.politenessMs = politenessMs;
-
-        // make sure allowedHosts is never null and cannot be modified from outside
-        this.allowedHosts = (allowedHosts == null)
-                ? Collections.emptySet()
-                : Collections.unmodifiableSet(allowedHosts);
-
-        this.fetchRetries = fetchRetries;
-        this.fetchBackoffMs = fetchBackoffMs;
-        this.proxyHost = proxyHost;
-        this.proxyPort = proxyPort;
-    }
-
-    // simple getters for all the config values
-    public int getMaxPages() {
-        return maxPages;
-    }
-
-    public int getMaxDepth() {
-        return maxDepth;
-    }
-
-    public String getUserAgent() {
-        return userAgent;
-    }
-
-    public long getPolitenessMs() {
-        return politenessMs;
-    }
-
-    public Set<String> getAllowedHosts() {
-        return allowedHosts;
-    }
-
-    public boolean hasHostWhitelist() {
-        return !allowedHosts.isEmpty();
-    }
-
-    public int getFetchRetries() {
-        return fetchRetries;
-    }
-
-    public long getFetchBackoffMs() {
-        return fetchBackoffMs;
-    }
-
-    public String getProxyHost() {
-        return proxyHost;
-    }
-
-    public int getProxyPort() {
-        return proxyPort;
-    }
-
-    // convenience: check if proxy settings are usable
-    public boolean hasProxy() {
-        return proxyHost != null && !proxyHost.isBlank() && proxyPort > 0;
-    }
-}
+package com.potato.config;
+
+import java.util.Collections;
+import java.util.Set;
+
+import com.potato.util.UrlIdScheme;
+
+public class CrawlerConfig {
+
+    /**
+     * How CrawlerLogic runs its workers:
+     * - PLATFORM: a fixed pool of platform threads, each looping over the frontier
+     * - VIRTUAL: one virtual thread per in-flight URL, bounded by maxConcurrency
+     * - ASYNC: fetches run on HttpClient.sendAsync (at most maxConcurrency in flight,
+     *   maxInFlightPerHost per host), workerThreads threads do checks, parsing and storing
+     */
+    public enum WorkerMode {
+        PLATFORM,
+        VIRTUAL,
+        ASYNC
+    }
+
+    /**
+     * Where CrawlerLogic stores fetched pages:
+     * - FILES: FilePageStorage, an .html and a .json file per page
+     * - SEGMENTS: SegmentPageStorage, records appended to large rolling segment files
+     */
+    public enum StorageFormat {
+        FILES,
+        SEGMENTS
+    }
+
+    /**
+     * How pages are parsed:
+     * - STREAMING: single pass over the HTML for title, links, canonical and meta robots
+     * - JSOUP: full Jsoup Document (slower, but handles anything a browser would)
+     */
+    public enum ParserMode {
+        STREAMING,
+        JSOUP
+    }
+
+    private final int maxPages;
+    private final int maxDepth;
+    private final String userAgent;
+    private final long politenessMs;
+    private final Set<String> allowedHosts;
+
+    private final int fetchRetries;
+    private final long fetchBackoffMs;
+    private final String proxyHost;
+    private final int proxyPort;
+    private final long maxPageBytes;
+
+    private final WorkerMode workerMode;
+    private final int workerThreads;
+    private final int maxConcurrency;
+    private final int maxInFlightPerHost;
+
+    private final int frontierMemoryEntries;
+    private final String frontierSpillDir;
+
+    private final long seenExpectedUrls;
+
+    private final boolean continuous;
+    private final long revisitInitialSeconds;
+    private final long revisitMinSeconds;
+    private final long revisitMaxSeconds;
+
+    private final StorageFormat storageFormat;
+    private final long storageSegmentBytes;
+    private final boolean storageCompress;
+    private final int storageQueueCapacity;
+    private final int storageWriterThreads;
+
+    private final int nearDupMaxDistance;
+    private final int nearDupMinPages;
+    private final double nearDupDemoteRatio;
+    private final double nearDupDropRatio;
+    private final long nearDupMaxFingerprints;
+
+    private final UrlIdScheme urlIdScheme;
+
+    private final ParserMode parserMode;
+
+    private final int parseThreads;
+    private final int parseQueueCapacity;
+    private final int enqueueThreads;
+    private final int enqueueQueueCapacity;
+
+    private final int robotsCacheSize;
+    private final long robotsTtlSeconds;
+    private final long robotsErrorTtlSeconds;
+
+    public CrawlerConfig(int maxPages,
+                         int maxDepth,
+                         String userAgent,
+                         long politenessMs,
+                         Set<String> allowedHosts,
+                         int fetchRetries,
+                         long fetchBackoffMs,
+                         String proxyHost,
+                         int proxyPort,
+                         long maxPageBytes,
+                         WorkerMode workerMode,
+                         int workerThreads,
+                         int maxConcurrency,
+                         int maxInFlightPerHost,
+                         int frontierMemoryEntries,
+                         String frontierSpillDir,
+                         long seenExpectedUrls,
+                         boolean continuous,
+                         long revisitInitialSeconds,
+                         long revisitMinSeconds,
+                         long revisitMaxSeconds,
+                         StorageFormat storageFormat,
+                         long storageSegmentBytes,
+                         boolean storageCompress,
+                         int storageQueueCapacity,
+                         int storageWriterThreads,
+                         int nearDupMaxDistance,
+                         int nearDupMinPages,
+                         double nearDupDemoteRatio,
+                         double nearDupDropRatio,
+                         long nearDupMaxFingerprints,
+                         UrlIdScheme urlIdScheme,
+                         ParserMode parserMode,
+                         int parseThreads,
+                         int parseQueueCapacity,
+                         int enqueueThreads,
+                         int enqueueQueueCapacity,
+                         int robotsCacheSize,
+                         long robotsTtlSeconds,
+                         long robotsErrorTtlSeconds) {
+        this.maxPages = maxPages;
+        this.maxDepth = maxDepth;
+        this.userAgent = userAgent;
+        this.politenessMs = politenessMs;
+
+        // make sure allowedHosts is never null and cannot be modified from outside
+        this.allowedHosts = (allowedHosts == null)
+                ? Collections.emptySet()
+                : Collections.unmodifiableSet(allowedHosts);
+
+        this.fetchRetries = fetchRetries;
+        this.fetchBackoffMs = fetchBackoffMs;
+        this.proxyHost = proxyHost;
+        this.proxyPort = proxyPort;
+        this.maxPageBytes = maxPageBytes;
+
+        this.workerMode = (workerMode == null) ? WorkerMode.PLATFORM : workerMode;
+        this.workerThreads = Math.max(1, workerThreads);
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.maxInFlightPerHost = Math.max(1, maxInFlightPerHost);
+
+        this.frontierMemoryEntries = Math.max(1, frontierMemoryEntries);
+        this.frontierSpillDir = frontierSpillDir;
+
+        this.seenExpectedUrls = Math.max(1, seenExpectedUrls);
+
+        this.continuous = continuous;
+        this.revisitMinSeconds = Math.max(1, revisitMinSeconds);
+        this.revisitMaxSeconds = Math.max(this.revisitMinSeconds, revisitMaxSeconds);
+        this.revisitInitialSeconds = Math.min(this.revisitMaxSeconds,
+                Math.max(this.revisitMinSeconds, revisitInitialSeconds));
+
+        this.storageFormat = (storageFormat == null) ? StorageFormat.SEGMENTS : storageFormat;
+        this.storageSegmentBytes = storageSegmentBytes;
+        this.storageCompress = storageCompress;
+        this.storageQueueCapacity = Math.max(1, storageQueueCapacity);
+        this.storageWriterThreads = Math.max(1, storageWriterThreads);
+
+        this.nearDupMaxDistance = nearDupMaxDistance;
+        this.nearDupMinPages = nearDupMinPages;
+        this.nearDupDemoteRatio = nearDupDemoteRatio;
+        this.nearDupDropRatio = nearDupDropRatio;
+        this.nearDupMaxFingerprints = Math.max(1024, nearDupMaxFingerprints);
+
+        this.urlIdScheme = (urlIdScheme == null) ? UrlIdScheme.SHA1 : urlIdScheme;
+
+        this.parserMode = (parserMode == null) ? ParserMode.STREAMING : parserMode;
+
+        // 0 (or less) = one parse thread per core
+        this.parseThreads = (parseThreads > 0) ? parseThreads : Runtime.getRuntime().availableProcessors();
+        this.parseQueueCapacity = Math.max(1, parseQueueCapacity);
+        this.enqueueThreads = Math.max(1, enqueueThreads);
+        this.enqueueQueueCapacity = Math.max(1, enqueueQueueCapacity);
+
+        this.robotsCacheSize = Math.max(1, robotsCacheSize);
+        this.robotsTtlSeconds = Math.max(60, robotsTtlSeconds);
+        this.robotsErrorTtlSeconds = Math.min(this.robotsTtlSeconds, Math.max(60, robotsErrorTtlSeconds));
+    }
+
+    // simple getters for all the config values
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    public long getPolitenessMs() {
+        return politenessMs;
+    }
+
+    public Set<String> getAllowedHosts() {
+        return allowedHosts;
+    }
+
+    public boolean hasHostWhitelist() {
+        return !allowedHosts.isEmpty();
+    }
+
+    public int getFetchRetries() {
+        return fetchRetries;
+    }
+
+    public long getFetchBackoffMs() {
+        return fetchBackoffMs;
+    }
+
+    public String getProxyHost() {
+        return proxyHost;
+    }
+
+    public int getProxyPort() {
+        return proxyPort;
+    }
+
+    // pages bigger than this are not downloaded completely
+    public long getMaxPageBytes() {
+        return maxPageBytes;
+    }
+
+    // convenience: check if proxy settings are usable
+    public boolean hasProxy() {
+        return proxyHost != null && !proxyHost.isBlank() && proxyPort > 0;
+    }
+
+    public WorkerMode getWorkerMode() {
+        return workerMode;
+    }
+
+    // number of platform threads in PLATFORM and ASYNC mode
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    // max URLs processed at the same time in VIRTUAL and ASYNC mode
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    // max concurrent requests to one host in ASYNC mode
+    public int getMaxInFlightPerHost() {
+        return maxInFlightPerHost;
+    }
+
+    // max URLs the frontier keeps on the heap before spilling to disk
+    public int getFrontierMemoryEntries() {
+        return frontierMemoryEntries;
+    }
+
+    public String getFrontierSpillDir() {
+        return frontierSpillDir;
+    }
+
+    // convenience: check if the frontier may spill to disk
+    public boolean hasFrontierSpillDir() {
+        return frontierSpillDir != null && !frontierSpillDir.isBlank();
+    }
+
+    // expected number of distinct URLs, used to pre-size the seen-URL set
+    public long getSeenExpectedUrls() {
+        return seenExpectedUrls;
+    }
+
+    // keep running and revisit fetched pages instead of stopping after one pass
+    public boolean isContinuous() {
+        return continuous;
+    }
+
+    // revisit interval of a page we know nothing about yet
+    public long getRevisitInitialSeconds() {
+        return revisitInitialSeconds;
+    }
+
+    // bounds for the revisit interval estimated from a page's change history
+    public long getRevisitMinSeconds() {
+        return revisitMinSeconds;
+    }
+
+    public long getRevisitMaxSeconds() {
+        return revisitMaxSeconds;
+    }
+
+    public StorageFormat getStorageFormat() {
+        return storageFormat;
+    }
+
+    // size at which the segment store starts a new segment file
+    public long getStorageSegmentBytes() {
+        return storageSegmentBytes;
+    }
+
+    // deflate page bodies in the segment store, with dictionaries trained per segment
+    public boolean isStorageCompress() {
+        return storageCompress;
+    }
+
+    // pages waiting to be written before the crawl threads have to wait for the disk
+    public int getStorageQueueCapacity() {
+        return storageQueueCapacity;
+    }
+
+    public int getStorageWriterThreads() {
+        return storageWriterThreads;
+    }
+
+    // max SimHash bit difference for two pages to count as near-duplicates
+    public int getNearDupMaxDistance() {
+        return nearDupMaxDistance;
+    }
+
+    // pages a host needs before its near-duplicate share is acted on
+    public int getNearDupMinPages() {
+        return nearDupMinPages;
+    }
+
+    // near-duplicate share at which links to a host get the lowest priority
+    public double getNearDupDemoteRatio() {
+        return nearDupDemoteRatio;
+    }
+
+    // near-duplicate share at which links to a host are dropped
+    public double getNearDupDropRatio() {
+        return nearDupDropRatio;
+    }
+
+    // SimHash fingerprints kept over all hosts before the least recently used hosts are forgotten
+    public long getNearDupMaxFingerprints() {
+        return nearDupMaxFingerprints;
+    }
+
+    // URL hash used for page file names
+    public UrlIdScheme getUrlIdScheme() {
+        return urlIdScheme;
+    }
+
+    public ParserMode getParserMode() {
+        return parserMode;
+    }
+
+    // threads of the CPU pool that parses pages
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+    // fetched pages waiting to be parsed before fetch workers block
+    public int getParseQueueCapacity() {
+        return parseQueueCapacity;
+    }
+
+    public int getEnqueueThreads() {
+        return enqueueThreads;
+    }
+
+    // parsed pages whose links wait to be enqueued before parse threads block
+    public int getEnqueueQueueCapacity() {
+        return enqueueQueueCapacity;
+    }
+
+    // sites whose robots.txt rules are kept in memory
+    public int getRobotsCacheSize() {
+        return robotsCacheSize;
+    }
+
+    // longest time a robots.txt is used before it is fetched again
+    public long getRobotsTtlSeconds() {
+        return robotsTtlSeconds;
+    }
+
+    // first retry delay after a 5xx or timeout on robots.txt
+    public long getRobotsErrorTtlSeconds() {
+        return robotsErrorTtlSeconds;
+    }
+}
@@ -1,254 +1,760 @@
-package com.potato.crawler;
-
-import java.io.IOException;
-import java.net.URI;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import com.potato.config.CrawlerConfig;
-import com.potato.fetcher.PageFetcher;
-import com.potato.fetcher.PageFetcher.FetchResult;
-import com.potato.parser.HtmlParser;
-import com.potato.util.HostRateLimiter;
-import com.potato.util.Metrics;
-import com.potato.util.UrlUtils;
-import com.potato.robots.RobotsCache;
-import com.potato.robots.RobotsFetcher;
-import com.potato.robots.RobotsRules;
-import com.potato.storage.FilePageStorage;
-import com.potato.storage.PageStorage;
-
-public class CrawlerLogic {
-
-    private final CrawlerConfig config;
-    private final PageFetcher fetcher;
-    private final HtmlParser parser;
-    private final HostRateLimiter rateLimiter;
-    private final RobotsCache robotsCache;
-    private final PageStorage storage;
-
-    private final PriorityBlockingQueue<CrawlItem> frontier = new PriorityBlockingQueue<>();
-    private final Set<String> visited = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    private final AtomicInteger pagesCrawled = new AtomicInteger(0);
-    private final ExecutorService executor;
-    private volatile boolean running = true;
-    private final AtomicInteger sequence = new AtomicInteger(0);
-
-    // metrics collection (fetched, failed, skipped, in flight, etc.)
-    private final Metrics METRICS = new Metrics();
-
-    public CrawlerLogic(CrawlerConfig config) {
-        this.config = config;
-        this.fetcher = new PageFetcher(config.getUserAgent());
-        this.parser = new HtmlParser();
-        this.rateLimiter = new HostRateLimiter(config.getPolitenessMs());
-        this.robotsCache = new RobotsCache(new RobotsFetcher(config.getUserAgent()));
-        try {
-            this.storage = new FilePageStorage("data");
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to initialize storage", e);
-        }
-        // for now: fixed 4 worker threads
-        this.executor = Executors.newFixedThreadPool(4);
-    }
-
-    public void crawl(List<String> seedUrls) {
-        // start metrics reporting
-        METRICS.startReporting();
-
-        for (String seed : seedUrls) {
-            String norm = UrlUtils.normalize(seed);
-            if (isHostAllowed(norm)) {
-                frontier.add(new CrawlItem(norm, 0, sequence.getAndIncrement()));
-            }
-        }
-
-        // start worker threads
-        for (int i = 0; i < 4; i++) {
-            executor.submit(new Worker());
-        }
-
-        // main loop: wait for crawling to finish or max pages reached
-        try {
-            while (running) {
-                if (pagesCrawled.get() >= config.getMaxPages()) {
-                    running = false;
-                    break;
-                }
-                if (frontier.isEmpty()) {
-                    Thread.sleep(500);
-                    if (frontier.isEmpty()) {
-                        running = false;
-                        break;
-                    }
-                } else {
-                    Thread.sleep(200);
-                }
-            }
-        } catch (InterruptedException ignored) {
-        } finally {
-            executor.shutdownNow();
-        }
-    }
-
-    // check if the host of a given URL is allowed based on the whitelist
-    private boolean isHostAllowed(String url) {
-        if (!config.hasHostWhitelist()) {
-            return true;
-        }
-        try {
-            URI uri = new URI(url);
-            String host = uri.getHost();
-            if (host == null) return false;
-            return config.getAllowedHosts().contains(host.toLowerCase());
-        } catch (Exception e) {
-            return false;
-        }
-    }
-
-    // worker that repeatedly takes URLs from the frontier, fetches, parses, and enqueues new links
-    private class Worker implements Runnable {
-        @Override
-        public void run() {
-            while (running && !Thread.currentThread().isInterrupted()) {
-                try {
-                    CrawlItem current = frontier.poll(1, TimeUnit.SECONDS);
-                    if (current == null) {
-                        continue;
-                    }
-
-                    String currentUrl = UrlUtils.normalize(current.url);
-
-                    if (!isHostAllowed(currentUrl)) {
-                        METRICS.recordSkip();
-                        continue;
-                    }
-
-                    if (visited.contains(currentUrl)) {
-                        METRICS.recordSkip();
-                        continue;
-                    }
-
-                    if (current.depth > config.getMaxDepth()) {
-                        METRICS.recordSkip();
-                        continue;
-                    }
-
-                    RobotsRules rules = robotsCache.getRulesFor(currentUrl);
-                    URI uri = new URI(currentUrl);
-                    String path = uri.getRawPath();
-                    if (path == null || path.isEmpty()) {
-                        path = "/";
-                    }
-                    if (!rules.isAllowed(path)) {
-                        System.out.println("Blocked by robots.txt: " + currentUrl);
-                        METRICS.recordSkip();
-                        continue;
-                    }
-
-                    String host = uri.getHost();
-                    if (host != null) {
-                        rateLimiter.acquire(host);
-                    }
-
-                    METRICS.inFlight.incrementAndGet();
-                    long t0 = System.nanoTime();
-                    FetchResult result = null;
-                    try {
-                        result = fetcher.fetch(currentUrl);
-                    } catch (Exception ex) {
-                        METRICS.recordFailure(host != null ? host : "unknown");
-                        continue;
-                    } finally {
-                        METRICS.inFlight.decrementAndGet();
-                    }
-                    long millis = (System.nanoTime() - t0) / 1_000_000L;
-
-                    if (result.statusCode != 200) {
-                        System.out.println("Failed " + currentUrl + " status: " + result.statusCode);
-                        METRICS.recordFailure(host != null ? host : "unknown");
-                        continue;
-                    }
-
-                    if (result.contentType == null ||
-                            !result.contentType.toLowerCase().contains("text/html")) {
-                        System.out.println("Skip non-HTML: " + currentUrl + " (" + result.contentType + ")");
-                        METRICS.recordSkip();
-                        continue;
-                    }
-
-                    long maxSize = 1_000_000;
-                    if (result.contentLength > 0 && result.contentLength > maxSize) {
-                        System.out.println("Skip too large: " + currentUrl + " (" + result.contentLength + " bytes)");
-                        METRICS.recordSkip();
-                        continue;
-                    }
-
-                    HtmlParser.ParsedPage page = parser.parse(result.body, currentUrl);
-
-                    try {
-                        storage.save(currentUrl, page.title, result.body, page.links);
-                    } catch (IOException io) {
-                        System.out.println("Failed to store page " + currentUrl + " : " + io.getMessage());
-                    }
-
-                    int num = pagesCrawled.incrementAndGet();
-                    visited.add(currentUrl);
-
-                    System.out.printf("(%d) [%d] %s -> %s%n",
-                            num,
-                            current.depth,
-                            page.title,
-                            currentUrl);
-
-                    long bytes = (result.body != null) ? result.body.length() : 0;
-                    METRICS.recordFetch(millis, bytes);
-
-                    if (num >= config.getMaxPages()) {
-                        running = false;
-                    }
-
-                    for (String link : page.links) {
-                        String normLink = UrlUtils.normalize(link);
-                        if (isHostAllowed(normLink) && !visited.contains(normLink)) {
-                            frontier.add(new CrawlItem(
-                                    normLink,
-                                    current.depth + 1,
-                                    sequence.getAndIncrement()
-                            ));
-                        }
-                    }
-
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                } catch (Exception e) {
-                    System.out.println("Worker error: " + e.getMessage());
-                }
-            }
-        }
-    }
-
-     // simple item representing one URL to crawl, plus its depth and a sequence number
-    private static class CrawlItem implements Comparable<CrawlItem> {
-        final String url;
-        final int depth;
-        final int seq;
-
-        CrawlItem(String url, int depth, int seq) {
-            this.url = url;
-            this.depth = depth;
-            this.seq = seq;
-        }
-
-        // priority: lower depth first; if same depth, use sequence to keep FIFO order
-        @Override
-        public int compareTo(CrawlItem other) {
-            int c = Integer.compare(this.depth, other.depth);
-            if (c != 0) return c;
-            return Integer.compare(this.seq, other.seq);
-        }
-    }
-}
+package com.potato.crawler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.potato.config.CrawlerConfig;
+import com.potato.fetcher.PageFetcher;
+import com.potato.fetcher.PageFetcher.FetchResult;
+import com.potato.parser.HtmlParser;
+import com.potato.util.HostRateLimiter;
+import com.potato.util.Metrics;
+import com.potato.util.PipelineStage;
+import com.potato.util.SeenUrlSet;
+import com.potato.util.SimHash;
+import com.potato.util.ParsedUrl;
+import com.potato.robots.RobotsCache;
+import com.potato.robots.RobotsFetcher;
+import com.potato.robots.RobotsRules;
+import com.potato.scheduler.ChangeHistory;
+import com.potato.scheduler.Frontier;
+import com.potato.scheduler.Frontier.CrawlTask;
+import com.potato.scheduler.HostPartitionedFrontier;
+import com.potato.scheduler.NearDuplicateDetector;
+import com.potato.scheduler.RevisitFrontier;
+import com.potato.storage.ContentDigestStore;
+import com.potato.storage.FilePageStorage;
+import com.potato.storage.PageStorage;
+import com.potato.storage.SegmentPageStorage;
+import com.potato.storage.StorageStage;
+import com.potato.storage.ValidatorStore;
+
+public class CrawlerLogic {
+
+    private final CrawlerConfig config;
+    private final PageFetcher fetcher;
+    private final HtmlParser parser;
+    private final HostRateLimiter rateLimiter;
+    private final RobotsCache robotsCache;
+    // queues pages for the writer threads, runs a callback once a page is written
+    private final StorageStage storage;
+    // ETag / Last-Modified per URL, sent back on refetch
+    private final ValidatorStore validators;
+    // digest of every stored body -> URL it was stored under
+    private final ContentDigestStore digests;
+    // SimHash index per host, spots near-duplicate pages and crawler traps
+    private final NearDuplicateDetector nearDuplicates;
+
+    // host-partitioned frontier, only hands out URLs whose host may be fetched right now
+    private final Frontier frontier;
+    // continuous mode only (null otherwise): revisit queue on top of the frontier and per-URL change history
+    private final RevisitFrontier revisits;
+    private final ChangeHistory history;
+    // URLs that were ever put into the frontier (checked and marked atomically at enqueue)
+    private final SeenUrlSet discovered;
+    // URLs a worker has taken on, so a URL is never fetched twice
+    private final SeenUrlSet fetched;
+
+    // stages behind the fetch workers: parse (CPU pool) -> store (StorageStage) -> enqueue links
+    private final PipelineStage parseStage;
+    private final PipelineStage enqueueStage;
+
+    private final AtomicInteger pagesCrawled = new AtomicInteger(0);
+    private final ExecutorService executor;
+    // caps in-flight URLs in VIRTUAL mode (one permit per virtual thread)
+    private final Semaphore permits;
+    // URLs taken from the frontier that are still being processed
+    private final AtomicInteger active = new AtomicInteger(0);
+    private volatile boolean running = true;
+
+    // max URLs the VIRTUAL dispatcher takes from the frontier in one go
+    private static final int DISPATCH_BATCH = 64;
+    // how often continuous mode writes the change history to disk
+    private static final long HISTORY_SAVE_INTERVAL_MS = 60_000;
+
+    // metrics collection (fetched, failed, skipped, in flight, etc.)
+    private final Metrics METRICS = new Metrics();
+
+    public CrawlerLogic(CrawlerConfig config) {
+        this.config = config;
+        ProxySelector proxy = config.hasProxy()
+                ? ProxySelector.of(new InetSocketAddress(config.getProxyHost(), config.getProxyPort()))
+                : null;
+        this.fetcher = new PageFetcher(
+                config.getUserAgent(),
+                config.getFetchRetries(),
+                config.getFetchBackoffMs(),
+                proxy,
+                config.getMaxPageBytes(),
+                config.getMaxConcurrency(),
+                config.getMaxInFlightPerHost());
+        this.parser = new HtmlParser(config.getParserMode() == CrawlerConfig.ParserMode.STREAMING);
+        this.rateLimiter = new HostRateLimiter(config.getPolitenessMs());
+        this.robotsCache = new RobotsCache(
+                new RobotsFetcher(config.getUserAgent()),
+                config.getRobotsCacheSize(),
+                config.getRobotsTtlSeconds() * 1000,
+                config.getRobotsErrorTtlSeconds() * 1000);
+        try {
+            PageStorage target = (config.getStorageFormat() == CrawlerConfig.StorageFormat.SEGMENTS)
+                    ? new SegmentPageStorage("data/segments", config.getStorageSegmentBytes(), config.isStorageCompress())
+                    : new FilePageStorage("data", config.getUrlIdScheme());
+            this.validators = new ValidatorStore("data");
+            this.digests = new ContentDigestStore("data");
+            // workers only queue pages, writer threads do the disk I/O in batches
+            this.storage = new StorageStage(
+                    target,
+                    config.getStorageQueueCapacity(),
+                    config.getStorageWriterThreads(),
+                    METRICS,
+                    this::flushStored);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to initialize storage", e);
+        }
+        // PLATFORM: fixed pool of looping workers, VIRTUAL: one virtual thread per URL,
+        // ASYNC: fixed pool that only runs checks and post-processing around async fetches
+        if (config.getWorkerMode() == CrawlerConfig.WorkerMode.VIRTUAL) {
+            this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        } else {
+            this.executor = Executors.newFixedThreadPool(config.getWorkerThreads());
+        }
+        this.permits = new Semaphore(config.getMaxConcurrency());
+        this.nearDuplicates = new NearDuplicateDetector(
+                config.getNearDupMaxDistance(),
+                config.getNearDupMinPages(),
+                config.getNearDupDemoteRatio(),
+                config.getNearDupDropRatio(),
+                config.getNearDupMaxFingerprints());
+        this.discovered = new SeenUrlSet(64, config.getSeenExpectedUrls());
+        this.fetched = new SeenUrlSet(64, config.getSeenExpectedUrls());
+
+        this.parseStage = PipelineStage.forkJoin("parse", config.getParseThreads(), config.getParseQueueCapacity());
+        this.enqueueStage = PipelineStage.threads("enqueue", config.getEnqueueThreads(), config.getEnqueueQueueCapacity());
+        METRICS.register(parseStage);
+        METRICS.register(enqueueStage);
+
+        // one front queue per depth, and ~3 back queues (hosts) per concurrent worker
+        int workers = (config.getWorkerMode() == CrawlerConfig.WorkerMode.PLATFORM)
+                ? config.getWorkerThreads()
+                : config.getMaxConcurrency();
+        Path spillDir = config.hasFrontierSpillDir() ? Paths.get(config.getFrontierSpillDir()) : null;
+        Frontier base = new HostPartitionedFrontier(
+                rateLimiter,
+                config.getMaxDepth() + 2,
+                3 * workers,
+                spillDir,
+                config.getFrontierMemoryEntries());
+
+        if (config.isContinuous()) {
+            try {
+                this.history = new ChangeHistory("data",
+                        config.getRevisitInitialSeconds() * 1000,
+                        config.getRevisitMinSeconds() * 1000,
+                        config.getRevisitMaxSeconds() * 1000);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to initialize change history", e);
+            }
+            this.revisits = new RevisitFrontier(base);
+            this.frontier = revisits;
+        } else {
+            this.history = null;
+            this.revisits = null;
+            this.frontier = base;
+        }
+    }
+
+    public void crawl(List<String> seedUrls) {
+        // start metrics reporting
+        METRICS.startReporting();
+
+        if (revisits != null) {
+            // pick up the revisit schedule of the previous run; those URLs count as discovered
+            history.forEachDue((url, depth, dueAt) -> {
+                discovered.add(url);
+                revisits.scheduleRevisit(url, depth, dueAt);
+            });
+            System.out.println("Continuous mode: " + history.size() + " known pages scheduled for revisit");
+            Runtime.getRuntime().addShutdownHook(new Thread(this::saveHistory));
+        }
+
+        for (String seed : seedUrls) {
+            enqueue(ParsedUrl.parse(seed), 0);
+        }
+
+        // start the workers for the selected engine
+        Thread dispatcher = null;
+        switch (config.getWorkerMode()) {
+            case VIRTUAL -> dispatcher = Thread.ofVirtual().name("crawler-dispatcher")
+                    .start(new Dispatcher(task -> executor.submit(() -> runTask(task))));
+            case ASYNC -> dispatcher = Thread.ofVirtual().name("crawler-dispatcher")
+                    .start(new Dispatcher(task -> executor.execute(() -> startAsync(task))));
+            default -> {
+                for (int i = 0; i < config.getWorkerThreads(); i++) {
+                    executor.submit(new Worker());
+                }
+            }
+        }
+
+        // main loop: wait for crawling to finish or max pages reached
+        // (in continuous mode revisits keep the frontier non-empty, so this runs until stopped)
+        long lastHistorySave = System.currentTimeMillis();
+        try {
+            while (running) {
+                if (!config.isContinuous() && pagesCrawled.get() >= config.getMaxPages()) {
+                    running = false;
+                    break;
+                }
+                if (history != null && System.currentTimeMillis() - lastHistorySave >= HISTORY_SAVE_INTERVAL_MS) {
+                    saveHistory();
+                    lastHistorySave = System.currentTimeMillis();
+                }
+                if (isIdle()) {
+                    Thread.sleep(500);
+                    if (isIdle()) {
+                        running = false;
+                        break;
+                    }
+                } else {
+                    Thread.sleep(200);
+                }
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            running = false;
+            if (dispatcher != null) {
+                dispatcher.interrupt();
+            }
+            executor.shutdownNow();
+            // let pages already fetched be parsed and stored, upstream stage first
+            parseStage.close();
+            enqueueStage.close();
+            frontier.close();
+            // storage first: its last batches still record validators and digests
+            try {
+                storage.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close page storage: " + e.getMessage());
+            }
+            try {
+                validators.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close validator store: " + e.getMessage());
+            }
+            try {
+                digests.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close digest store: " + e.getMessage());
+            }
+            saveHistory();
+            System.out.print(discovered.report());
+        }
+    }
+
+    /**
+     * Put a normalized URL into the frontier, unless it was discovered before.
+     * Deduplicating here (and not after the fetch) means the frontier grows with
+     * unique URLs instead of with every link occurrence on every page.
+     */
+    private void enqueue(ParsedUrl url, int depth) {
+        if (url == null || depth > config.getMaxDepth() || !isHostAllowed(url)) {
+            return;
+        }
+        // continuous mode: maxPages bounds the set of pages we keep fresh
+        if (history != null && history.size() >= config.getMaxPages()) {
+            return;
+        }
+        // links into a suspected crawler trap go to the back of the frontier, or nowhere
+        NearDuplicateDetector.Verdict verdict = nearDuplicates.verdict(url.host);
+        if (verdict == NearDuplicateDetector.Verdict.DROP) {
+            METRICS.linksDropped.incrementAndGet();
+            return;
+        }
+        if (discovered.add(url.url)) {
+            if (verdict == NearDuplicateDetector.Verdict.DEMOTE) {
+                METRICS.linksDemoted.incrementAndGet();
+                frontier.addDemoted(url.url, depth);
+            } else {
+                frontier.add(url.url, depth);
+            }
+        }
+    }
+
+    /**
+     * Nothing left to crawl and nobody is still working on a URL that could add more.
+     * Stages are read in pipeline order: a page moves to the next stage before it
+     * leaves the current one, so it cannot slip past this check.
+     */
+    private boolean isIdle() {
+        return active.get() == 0
+                && parseStage.pending() == 0
+                && enqueueStage.pending() == 0
+                && frontier.isEmpty();
+    }
+
+    // check if the host of a given URL is allowed based on the whitelist
+    private boolean isHostAllowed(ParsedUrl url) {
+        if (!config.hasHostWhitelist()) {
+            return true;
+        }
+        return config.getAllowedHosts().contains(url.host);
+    }
+
+    // PLATFORM mode: worker that repeatedly takes URLs from the frontier and processes them
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (running && !Thread.currentThread().isInterrupted()) {
+                try {
+                    CrawlTask current = frontier.poll(1000);
+                    if (current == null) {
+                        continue;
+                    }
+                    active.incrementAndGet();
+                    try {
+                        process(current);
+                    } finally {
+                        frontier.ack(current);
+                        active.decrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    System.out.println("Worker error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * VIRTUAL and ASYNC mode: takes URLs from the frontier while fewer than
+     * maxConcurrency are in progress and hands each one to the engine.
+     * Every launched URL must end with finish(), which frees its permit.
+     */
+    private class Dispatcher implements Runnable {
+        private final Consumer<CrawlTask> launch;
+
+        Dispatcher(Consumer<CrawlTask> launch) {
+            this.launch = launch;
+        }
+
+        @Override
+        public void run() {
+            while (running && !Thread.currentThread().isInterrupted()) {
+                try {
+                    // wait for one free slot, then grab whatever else is free right now
+                    permits.acquire();
+                    int granted = 1;
+                    while (granted < DISPATCH_BATCH && permits.tryAcquire()) {
+                        granted++;
+                    }
+                    List<CrawlTask> batch = frontier.pollBatch(granted, 1000);
+                    permits.release(granted - batch.size());
+
+                    for (CrawlTask current : batch) {
+                        active.incrementAndGet();
+                        launch.accept(current);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RejectedExecutionException e) {
+                    // executor was shut down while we were dispatching
+                    return;
+                }
+            }
+        }
+    }
+
+    // VIRTUAL mode: the whole URL runs blocking on its own virtual thread
+    private void runTask(CrawlTask current) {
+        try {
+            process(current);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.out.println("Worker error: " + e.getMessage());
+        } finally {
+            finish(current);
+        }
+    }
+
+    // ASYNC mode: checks on a pool thread, fetch without a thread, post-processing back on the pool
+    private void startAsync(CrawlTask current) {
+        ParsedUrl prepared;
+        try {
+            prepared = precheck(current);
+        } catch (Exception e) {
+            System.out.println("Worker error: " + e.getMessage());
+            prepared = null;
+        }
+        if (prepared == null) {
+            finish(current);
+            return;
+        }
+
+        // a site's first robots.txt is awaited without holding a pool thread
+        ParsedUrl parsed = prepared;
+        CompletableFuture<RobotsRules> rules = robotsCache.getRulesAsync(parsed);
+        if (rules.isDone()) {
+            launchFetch(current, parsed, rules.join());
+        } else {
+            rules.thenAcceptAsync(r -> launchFetch(current, parsed, r), executor);
+        }
+    }
+
+    private void launchFetch(CrawlTask current, ParsedUrl parsed, RobotsRules rules) {
+        if (!robotsAllow(current, parsed, rules)) {
+            finish(current);
+            return;
+        }
+        String url = parsed.url;
+        String host = parsed.host;
+        METRICS.inFlight.incrementAndGet();
+        long t0 = System.nanoTime();
+        ValidatorStore.Validators known = validators.get(url);
+        CompletableFuture<FetchResult> pending = (known != null)
+                ? fetcher.fetchAsync(url, known.etag, known.lastModified)
+                : fetcher.fetchAsync(url);
+        pending.whenCompleteAsync((result, err) -> {
+            METRICS.inFlight.decrementAndGet();
+            try {
+                if (err != null) {
+                    METRICS.recordFailure(host != null ? host : "unknown");
+                    scheduleNextVisit(current, url);
+                } else {
+                    handle(current, parsed, result, (System.nanoTime() - t0) / 1_000_000L);
+                }
+            } catch (Exception e) {
+                System.out.println("Worker error: " + e.getMessage());
+            } finally {
+                finish(current);
+            }
+        }, executor);
+    }
+
+    // a dispatched URL is done: release everything it held
+    private void finish(CrawlTask current) {
+        frontier.ack(current);
+        active.decrementAndGet();
+        permits.release();
+    }
+
+    // fetch one URL on this worker, parsing and storing continue on the later stages
+    private void process(CrawlTask current) throws Exception {
+        ParsedUrl parsed = prepare(current);
+        if (parsed == null) {
+            return;
+        }
+
+        // no need to wait here: the frontier only hands out URLs whose host is ready
+        String currentUrl = parsed.url;
+        String host = parsed.host;
+
+        METRICS.inFlight.incrementAndGet();
+        long t0 = System.nanoTime();
+        FetchResult result = null;
+        try {
+            ValidatorStore.Validators known = validators.get(currentUrl);
+            result = (known != null)
+                    ? fetcher.fetch(currentUrl, known.etag, known.lastModified)
+                    : fetcher.fetch(currentUrl);
+        } catch (Exception ex) {
+            METRICS.recordFailure(host != null ? host : "unknown");
+            scheduleNextVisit(current, currentUrl);
+            return;
+        } finally {
+            METRICS.inFlight.decrementAndGet();
+        }
+        long millis = (System.nanoTime() - t0) / 1_000_000L;
+
+        handle(current, parsed, result, millis);
+    }
+
+    // checks before fetching; returns the parsed URL, or null if it must be skipped
+    private ParsedUrl prepare(CrawlTask current) {
+        ParsedUrl parsed = precheck(current);
+        if (parsed == null || !robotsAllow(current, parsed, robotsCache.getRulesFor(parsed))) {
+            return null;
+        }
+        return parsed;
+    }
+
+    /**
+     * The checks that do not need robots.txt. A due revisit that does not
+     * pass is never just dropped, or the page would silently leave the
+     * revisit cycle: it is rescheduled with a longer interval, or forgotten
+     * if it is out of scope of the crawl now (host or depth).
+     */
+    private ParsedUrl precheck(CrawlTask current) {
+        ParsedUrl parsed = current.parsedUrl();
+        String currentUrl = (parsed != null) ? parsed.url : current.url;
+
+        // a due revisit may pass even though the URL was fetched before
+        boolean revisit = revisits != null && revisits.claimRevisit(currentUrl);
+
+        if (parsed == null || !isHostAllowed(parsed) || current.depth > config.getMaxDepth()) {
+            if (revisit) {
+                history.remove(currentUrl);
+            }
+            METRICS.recordSkip();
+            return null;
+        }
+
+        if (!fetched.add(currentUrl) && !revisit) {
+            METRICS.recordSkip();
+            return null;
+        }
+
+        // the host turned into a trap while this URL was waiting in the frontier
+        if (nearDuplicates.verdict(parsed.host) == NearDuplicateDetector.Verdict.DROP) {
+            METRICS.linksDropped.incrementAndGet();
+            if (revisit) {
+                postponeRevisit(current, currentUrl);
+            }
+            return null;
+        }
+
+        return parsed;
+    }
+
+    private boolean robotsAllow(CrawlTask current, ParsedUrl parsed, RobotsRules rules) {
+        if (!rules.isAllowed(parsed)) {
+            System.out.println("Blocked by robots.txt: " + parsed.url);
+            METRICS.recordSkip();
+            // only revisits get this far with history (first visits are not recorded yet)
+            postponeRevisit(current, parsed.url);
+            return false;
+        }
+        return true;
+    }
+
+    // a due revisit that is not fetched this time: try again after a longer wait
+    private void postponeRevisit(CrawlTask current, String url) {
+        if (history != null && history.postpone(url)) {
+            scheduleNextVisit(current, url);
+        }
+    }
+
+    // look at a fetch result, then hand the page to the parse stage
+    private void handle(CrawlTask current, ParsedUrl parsed, FetchResult result, long millis) {
+        String currentUrl = parsed.url;
+        String host = parsed.host;
+
+        if (result.notModified()) {
+            if (history != null) {
+                history.recordUnchanged(currentUrl, current.depth, System.currentTimeMillis());
+                scheduleNextVisit(current, currentUrl);
+            }
+            handleUnchanged(current, currentUrl, millis);
+            return;
+        }
+
+        if (result.statusCode != 200) {
+            System.out.println("Failed " + currentUrl + " status: " + result.statusCode);
+            METRICS.recordFailure(host != null ? host : "unknown");
+            scheduleNextVisit(current, currentUrl);
+            return;
+        }
+
+        if (!PageFetcher.isHtml(result.contentType)) {
+            System.out.println("Skip non-HTML: " + currentUrl + " (" + result.contentType + ")");
+            METRICS.recordSkip();
+            // a revisited page that is not a page any more: stop revisiting it
+            if (history != null) {
+                history.remove(currentUrl);
+            }
+            return;
+        }
+
+        if (result.tooLarge) {
+            System.out.println("Skip too large: " + currentUrl + " (over " + config.getMaxPageBytes() + " bytes)");
+            METRICS.recordSkip();
+            // a revisited page may shrink again, try later
+            postponeRevisit(current, currentUrl);
+            return;
+        }
+
+        if (history != null) {
+            long hash = ChangeHistory.contentHash(result.bodyBytes);
+            boolean changed = history.recordFetch(currentUrl, current.depth, hash, System.currentTimeMillis());
+            scheduleNextVisit(current, currentUrl);
+            if (!changed) {
+                // same bytes as last time: the stored copy is still current
+                handleUnchanged(current, currentUrl, millis);
+                return;
+            }
+        }
+
+        // exact copy of a body we already stored: keep a reference, skip parsing
+        // (the digest is only claimed once the page is written, see recordStored)
+        String digest = ContentDigestStore.digestOf(result.bodyBytes);
+        String owner = digests.ownerOf(digest);
+        if (owner != null) {
+            if (owner.equals(currentUrl)) {
+                handleUnchanged(current, currentUrl, millis);
+            } else {
+                handleDuplicate(currentUrl, owner, digest, result, millis);
+            }
+            return;
+        }
+
+        // parsing is CPU work: free this fetch worker and let the parse pool do it
+        if (!parseStage.submit(() -> parseAndStore(current, parsed, digest, result, millis))) {
+            METRICS.recordSkip();
+        }
+    }
+
+    // parse stage: parse, check for near-duplicates, queue for storage, then pass the links on
+    private void parseAndStore(CrawlTask current, ParsedUrl parsed, String digest, FetchResult result, long millis) {
+        String currentUrl = parsed.url;
+        String host = parsed.host;
+
+        String html = result.body();
+        HtmlParser.ParsedPage page = parser.parse(html, currentUrl);
+
+        if (host != null && nearDuplicates.add(host, currentUrl, SimHash.of(page.text))) {
+            System.out.println("Near-duplicate: " + currentUrl);
+            METRICS.pagesNearDuplicate.incrementAndGet();
+        }
+
+        // <meta name="robots" content="nofollow">: keep the page, don't follow (or store) its links
+        Set<String> links = page.nofollow ? Set.of() : page.links;
+
+        if (page.noindex) {
+            // <meta name="robots" content="noindex">: don't keep the page, but still follow its links.
+            // No validators or digest either: nothing is stored that a 304 or a duplicate could point to.
+            System.out.println("Noindex: " + currentUrl);
+        } else {
+            try {
+                storage.save(currentUrl, page.title, html, links, recordStored(currentUrl, digest, result));
+            } catch (IOException io) {
+                System.out.println("Failed to store page " + currentUrl + " : " + io.getMessage());
+            }
+        }
+
+        int num = pagesCrawled.incrementAndGet();
+
+        System.out.printf("(%d) [%d] %s -> %s%n",
+                num,
+                current.depth,
+                page.title,
+                currentUrl);
+
+        long bytes = (result.bodyBytes != null) ? result.bodyBytes.length : 0;
+        METRICS.recordFetch(millis, bytes);
+
+        if (num >= config.getMaxPages() && !config.isContinuous()) {
+            running = false;
+        }
+
+        String canonical = (page.canonical != null && !page.canonical.equals(currentUrl)) ? page.canonical : null;
+        if (!links.isEmpty() || canonical != null) {
+            enqueueStage.submit(() -> {
+                enqueueAll(links, current.depth + 1);
+                if (canonical != null) {
+                    enqueue(ParsedUrl.parse(canonical), current.depth + 1);
+                }
+            });
+        }
+    }
+
+    private void enqueueAll(Iterable<String> links, int depth) {
+        for (String link : links) {
+            enqueue(ParsedUrl.parse(link), depth);
+        }
+    }
+
+    /**
+     * 304 Not Modified: the stored copy is still current, so nothing is parsed
+     * or stored. The links saved with that copy are enqueued again so the
+     * recrawl still reaches the rest of the site.
+     */
+    private void handleUnchanged(CrawlTask current, String currentUrl, long millis) {
+        System.out.println("Unchanged: " + currentUrl);
+        METRICS.recordUnchanged(millis);
+
+        List<String> links;
+        try {
+            links = storage.loadLinks(currentUrl);
+        } catch (IOException io) {
+            System.out.println("Failed to load links of " + currentUrl + " : " + io.getMessage());
+            return;
+        }
+        if (!links.isEmpty()) {
+            enqueueStage.submit(() -> enqueueAll(links, current.depth + 1));
+        }
+    }
+
+    /**
+     * Same bytes as a page stored under another URL (tracking parameters,
+     * session IDs, mirrors). The body is not stored again and not parsed:
+     * its links were already followed when the original was crawled.
+     */
+    private void handleDuplicate(String currentUrl, String owner, String digest, FetchResult result, long millis) {
+        System.out.println("Duplicate of " + owner + ": " + currentUrl);
+        METRICS.recordDuplicate(millis, result.bodyBytes.length);
+        try {
+            storage.saveDuplicate(currentUrl, owner, recordStored(currentUrl, digest, result));
+        } catch (IOException io) {
+            System.out.println("Failed to store page " + currentUrl + " : " + io.getMessage());
+        }
+    }
+
+    /**
+     * Run by the storage writer once the page is written. Validators and the
+     * body digest are only kept for stored pages: a 304 or a duplicate
+     * pointing at a page whose write failed would leave us without a copy.
+     */
+    private Runnable recordStored(String url, String digest, FetchResult result) {
+        String etag = result.etag();
+        String lastModified = result.lastModified();
+        return () -> {
+            try {
+                validators.put(url, etag, lastModified);
+            } catch (IOException io) {
+                System.out.println("Failed to record validators of " + url + " : " + io.getMessage());
+            }
+            try {
+                digests.claim(digest, url);
+            } catch (IOException io) {
+                System.out.println("Failed to record digest of " + url + " : " + io.getMessage());
+            }
+        };
+    }
+
+    // after every storage batch: get what recordStored() appended out of the write buffers
+    private void flushStored() {
+        try {
+            validators.flush();
+            digests.flush();
+        } catch (IOException io) {
+            System.out.println("Failed to flush validators and digests: " + io.getMessage());
+        }
+    }
+
+    // continuous mode: put a page we have history for back on the revisit queue
+    private void scheduleNextVisit(CrawlTask current, String url) {
+        if (revisits == null || !history.contains(url)) {
+            return;
+        }
+        revisits.scheduleRevisit(url, current.depth, System.currentTimeMillis() + history.nextDelayMs(url));
+    }
+
+    private void saveHistory() {
+        if (history == null) {
+            return;
+        }
+        try {
+            history.save();
+        } catch (IOException e) {
+            System.out.println("Failed to save change history: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.potato.fetcher;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Works out which charset an HTML body is encoded in, looking at the raw
+ * bytes only (nothing is decoded here).
+ *
+ * Order, roughly as browsers do it:
+ * 1) byte order mark
+ * 2) charset=... in the Content-Type header
+ * 3) <meta charset> / <meta http-equiv="Content-Type"> in the first 1024 bytes
+ * 4) UTF-8
+ */
+public class CharsetDetector {
+
+    private static final int PRESCAN_BYTES = 1024;
+
+    public static Charset detect(byte[] body, String contentType) {
+        Charset bom = fromBom(body);
+        if (bom != null) {
+            return bom;
+        }
+        Charset header = lookup(charsetParam(contentType));
+        if (header != null) {
+            return header;
+        }
+        Charset meta = lookup(fromMeta(body));
+        if (meta != null) {
+            return meta;
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static Charset fromBom(byte[] b) {
+        if (b.length >= 3 && (b[0] & 0xFF) == 0xEF && (b[1] & 0xFF) == 0xBB && (b[2] & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if (b.length >= 2 && (b[0] & 0xFF) == 0xFE && (b[1] & 0xFF) == 0xFF) {
+            return StandardCharsets.UTF_16BE;
+        }
+        if (b.length >= 2 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xFF) == 0xFE) {
+            return StandardCharsets.UTF_16LE;
+        }
+        return null;
+    }
+
+    // "text/html; charset=ISO-8859-1" -> "ISO-8859-1"
+    static String charsetParam(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int i = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+        if (i < 0) {
+            return null;
+        }
+        int start = i + "charset=".length();
+        int end = start;
+        while (end < contentType.length()
+                && contentType.charAt(end) != ';'
+                && !Character.isWhitespace(contentType.charAt(end))) {
+            end++;
+        }
+        return contentType.substring(start, end).replace("\"", "").replace("'", "");
+    }
+
+    /**
+     * Look for charset= inside a <meta ...> tag in the first bytes of the page.
+     * The prefix is read as ISO-8859-1, which maps every byte to one char, so
+     * this works for any ASCII-compatible encoding.
+     */
+    private static String fromMeta(byte[] body) {
+        String head = new String(body, 0, Math.min(body.length, PRESCAN_BYTES), StandardCharsets.ISO_8859_1)
+                .toLowerCase(Locale.ROOT);
+        int from = 0;
+        int meta;
+        while ((meta = head.indexOf("<meta", from)) >= 0) {
+            int close = head.indexOf('>', meta);
+            if (close < 0) {
+                close = head.length();
+            }
+            String tag = head.substring(meta, close);
+            int cs = tag.indexOf("charset");
+            if (cs >= 0) {
+                int p = cs + "charset".length();
+                while (p < tag.length() && (tag.charAt(p) == ' ' || tag.charAt(p) == '=')) {
+                    p++;
+                }
+                int start = p;
+                while (p < tag.length()
+                        && tag.charAt(p) != ';' && tag.charAt(p) != '/' && tag.charAt(p) != ' ') {
+                    p++;
+                }
+                String name = tag.substring(start, p).replace("\"", "").replace("'", "");
+                if (!name.isEmpty()) {
+                    return name;
+                }
+            }
+            from = close;
+        }
+        return null;
+    }
+
+    private static Charset lookup(String name) {
+        if (name == null || name.isBlank()) {
+            return null;
+        }
+        String n = name.trim().toLowerCase(Locale.ROOT);
+        // browsers treat these labels as windows-1252, and so do real pages
+        if (n.equals("iso-8859-1") || n.equals("latin1") || n.equals("us-ascii") || n.equals("ascii")) {
+            n = "windows-1252";
+        }
+        try {
+            return Charset.forName(n);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.potato.fetcher;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking limit on concurrent requests, globally and per host.
+ *
+ * acquire() never parks a thread: it returns a future that completes as
+ * soon as a slot is free. Order is FIFO per host: a caller gets its slot at
+ * once if its host has room and nobody is waiting for that host, even while
+ * callers for busier hosts wait. Freed slots go to the oldest waiter whose
+ * host has room, so one busy host cannot block the rest.
+ */
+public class InFlightLimiter {
+
+    private final int maxTotal;
+    private final int maxPerHost;
+
+    private int total = 0;
+    private final Map<String, Integer> perHost = new HashMap<>();
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    // number of waiters per host
+    private final Map<String, Integer> waitingPerHost = new HashMap<>();
+
+    public InFlightLimiter(int maxTotal, int maxPerHost) {
+        this.maxTotal = Math.max(1, maxTotal);
+        this.maxPerHost = Math.max(1, maxPerHost);
+    }
+
+    public CompletableFuture<Void> acquire(String host) {
+        synchronized (this) {
+            if (hasRoom(host) && !waitingPerHost.containsKey(host)) {
+                take(host);
+                return CompletableFuture.completedFuture(null);
+            }
+            Waiter w = new Waiter(host);
+            waiters.add(w);
+            waitingPerHost.merge(host, 1, Integer::sum);
+            return w.future;
+        }
+    }
+
+    public void release(String host) {
+        ArrayDeque<Waiter> ready = new ArrayDeque<>();
+        synchronized (this) {
+            total--;
+            int left = perHost.merge(host, -1, Integer::sum);
+            if (left <= 0) {
+                perHost.remove(host);
+            }
+            Iterator<Waiter> it = waiters.iterator();
+            while (it.hasNext() && total < maxTotal) {
+                Waiter w = it.next();
+                if (hasRoom(w.host)) {
+                    it.remove();
+                    if (waitingPerHost.merge(w.host, -1, Integer::sum) <= 0) {
+                        waitingPerHost.remove(w.host);
+                    }
+                    take(w.host);
+                    ready.add(w);
+                }
+            }
+        }
+        // complete outside the lock, the callbacks may start new requests
+        for (Waiter w : ready) {
+            w.future.complete(null);
+        }
+    }
+
+    public synchronized int inFlight() {
+        return total;
+    }
+
+    public synchronized int waiting() {
+        return waiters.size();
+    }
+
+    private boolean hasRoom(String host) {
+        return total < maxTotal && perHost.getOrDefault(host, 0) < maxPerHost;
+    }
+
+    private void take(String host) {
+        total++;
+        perHost.merge(host, 1, Integer::sum);
+    }
+
+    private static class Waiter {
+        final String host;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Waiter(String host) {
+            this.host = host;
+        }
+    }
+}
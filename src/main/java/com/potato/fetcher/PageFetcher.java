@@ -1,128 +1,356 @@
-package com.potato.fetcher;
-
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.net.*;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
-import java.util.zip.GZIPInputStream;
-
-public class PageFetcher {
-
-    private final HttpClient client;
-    private final String userAgent;
-    private final int maxRetries;
-    private final long backoffMs;
-
-     // simple constructor with defaults (3 retries, 500ms backoff, no proxy)
-    public PageFetcher(String userAgent) {
-        this(userAgent, 3, 500, null);
-    }
-
-    // main constructor that allows configuring retries, backoff and proxy
-    public PageFetcher(String userAgent,
-                       int maxRetries,
-                       long backoffMs,
-                       ProxySelector proxySelector) {
-
-         // build an HttpClient that follows redirects and has a connect timeout
-        HttpClient.Builder builder = HttpClient.newBuilder()
-                .followRedirects(HttpClient.Redirect.NORMAL)
-                .connectTimeout(Duration.ofSeconds(5));
-
-        if (proxySelector != null) {
-            builder.proxy(proxySelector);
-        }
-
-        this.client = builder.build();
-        this.userAgent = userAgent;
-        this.maxRetries = maxRetries;
-        this.backoffMs = backoffMs;
-    }
-
-    /**
-     * Fetch a single URL and return status, headers and body.
-     * Retries on IO errors with exponential-ish backoff.
-     */
-    public FetchResult fetch(String url) throws IOException, InterruptedException {
-        IOException lastIo = null;
-
-        for (int attempt = 1; attempt <= maxRetries; attempt++) {
-            try {
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(URI.create(url))
-                        .header("User-Agent", userAgent)
-                        .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
-                        .header("Accept-Encoding", "gzip")
-                        .GET()
-                        .build();
-
-                HttpResponse<byte[]> response =
-                        client.send(request, HttpResponse.BodyHandlers.ofByteArray());
-
-                int status = response.statusCode();
-
-                String contentType = response.headers()
-                        .firstValue("Content-Type").orElse(null);
-
-                long contentLength = response.headers()
-                        .firstValueAsLong("Content-Length").orElse(-1L);
-
-                byte[] bodyBytes = response.body();
-                String encoding = response.headers().firstValue("Content-Encoding").orElse("");
-                if ("gzip".equalsIgnoreCase(encoding)) {
-                    bodyBytes = ungzip(bodyBytes);
-                }
-
-                String body = new String(bodyBytes, java.nio.charset.StandardCharsets.UTF_8);
-
-                return new FetchResult(
-                        status,
-                        body,
-                        url,
-                        contentType,
-                        contentLength
-                );
-
-            } catch (IOException e) {
-                lastIo = e;
-                Thread.sleep(backoffMs * attempt);
-            }
-        }
-
-        throw lastIo != null ? lastIo : new IOException("Failed to fetch " + url);
-    }
-
-     // helper to gunzip a byte[] into plain bytes
-    private byte[] ungzip(byte[] gzipped) throws IOException {
-        try (GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
-            return gis.readAllBytes();
-        }
-    }
-
-    /**
-     * Simple value object that holds everything the crawler needs
-     * from an HTTP fetch.
-     */
-    public static class FetchResult {
-        public final int statusCode;
-        public final String body;
-        public final String url;
-        public final String contentType;
-        public final long contentLength;
-
-        public FetchResult(int statusCode,
-                           String body,
-                           String url,
-                           String contentType,
-                           long contentLength) {
-            this.statusCode = statusCode;
-            this.body = body;
-            this.url = url;
-            this.contentType = contentType;
-            this.contentLength = contentLength;
-        }
-    }
-}
+package com.potato.fetcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.brotli.dec.BrotliInputStream;
+
+import com.potato.util.BackOff;
+import com.potato.util.UrlUtils;
+
+public class PageFetcher {
+
+    private final HttpClient client;
+    private final String userAgent;
+    private final int maxRetries;
+    private final long backoffMs;
+    private final long maxBodyBytes;
+
+    // async fetches: in-flight limits, body readers and the retry timer
+    private static final long MAX_BACKOFF_MS = 30_000;
+    private final InFlightLimiter inFlight;
+    private final ExecutorService bodyReaders = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService retryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "fetch-retry");
+        t.setDaemon(true);
+        return t;
+    });
+
+     // simple constructor with defaults (3 retries, 500ms backoff, no proxy, 1MB pages)
+    public PageFetcher(String userAgent) {
+        this(userAgent, 3, 500, null, 1_000_000, 1000, 2);
+    }
+
+    public PageFetcher(String userAgent,
+                       int maxRetries,
+                       long backoffMs,
+                       ProxySelector proxySelector) {
+        this(userAgent, maxRetries, backoffMs, proxySelector, 1_000_000, 1000, 2);
+    }
+
+    /**
+     * Main constructor that allows configuring retries, backoff, proxy and max page size.
+     * maxInFlight / maxInFlightPerHost only apply to fetchAsync().
+     */
+    public PageFetcher(String userAgent,
+                       int maxRetries,
+                       long backoffMs,
+                       ProxySelector proxySelector,
+                       long maxBodyBytes,
+                       int maxInFlight,
+                       int maxInFlightPerHost) {
+
+         // build an HttpClient that follows redirects and has a connect timeout
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(5));
+
+        if (proxySelector != null) {
+            builder.proxy(proxySelector);
+        }
+
+        this.client = builder.build();
+        this.userAgent = userAgent;
+        this.maxRetries = maxRetries;
+        this.backoffMs = backoffMs;
+        this.maxBodyBytes = maxBodyBytes;
+        this.inFlight = new InFlightLimiter(maxInFlight, maxInFlightPerHost);
+    }
+
+    /**
+     * The crawler only keeps HTML pages.
+     */
+    public static boolean isHtml(String contentType) {
+        return contentType != null && contentType.toLowerCase().contains("text/html");
+    }
+
+    /**
+     * Fetch a single URL and return status, headers and body.
+     * Retries on IO errors with exponential-ish backoff.
+     *
+     * The body is streamed: we look at the headers first and only read the
+     * body of a 200 HTML response. Reading stops as soon as the body grows
+     * past maxBodyBytes, whether or not the server sent a Content-Length.
+     * Closing the stream early aborts the download.
+     */
+    public FetchResult fetch(String url) throws IOException, InterruptedException {
+        return fetch(url, null, null);
+    }
+
+    /**
+     * Conditional fetch: sends If-None-Match / If-Modified-Since when we have
+     * validators from an earlier fetch. An unchanged page comes back as a 304
+     * result without a body (see FetchResult.notModified()).
+     */
+    public FetchResult fetch(String url, String etag, String lastModified) throws IOException, InterruptedException {
+        IOException lastIo = null;
+        HttpRequest request = buildRequest(url, etag, lastModified);
+
+        for (int attempt = 1; attempt <= maxRetries; attempt++) {
+            try {
+                HttpResponse<InputStream> response =
+                        client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                return toResult(url, response);
+
+            } catch (IOException e) {
+                lastIo = e;
+                Thread.sleep(backoffMs * attempt);
+            }
+        }
+
+        throw lastIo != null ? lastIo : new IOException("Failed to fetch " + url);
+    }
+
+    /**
+     * Asynchronous version of fetch().
+     *
+     * The request goes out through HttpClient.sendAsync once the global and
+     * per-host in-flight limits allow it, so no thread waits on the network.
+     * The (capped) body is read on a virtual thread. Failed attempts release
+     * their slot and are retried from a timer with jittered backoff instead
+     * of sleeping a thread.
+     */
+    public CompletableFuture<FetchResult> fetchAsync(String url) {
+        return fetchAsync(url, null, null);
+    }
+
+    // asynchronous version of the conditional fetch
+    public CompletableFuture<FetchResult> fetchAsync(String url, String etag, String lastModified) {
+        CompletableFuture<FetchResult> result = new CompletableFuture<>();
+        try {
+            attemptAsync(buildRequest(url, etag, lastModified), url, 1, result);
+        } catch (IllegalArgumentException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private void attemptAsync(HttpRequest request, String url, int attempt, CompletableFuture<FetchResult> result) {
+        String host = UrlUtils.hostOf(url);
+        String slot = (host != null) ? host : "";
+
+        inFlight.acquire(slot)
+                .thenCompose(v -> client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()))
+                .thenApplyAsync(response -> {
+                    try {
+                        return toResult(url, response);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, bodyReaders)
+                .whenComplete((r, err) -> {
+                    inFlight.release(slot);
+                    if (err == null) {
+                        result.complete(r);
+                        return;
+                    }
+                    Throwable cause = (err instanceof CompletionException && err.getCause() != null)
+                            ? err.getCause()
+                            : err;
+                    if (cause instanceof IOException && attempt < maxRetries) {
+                        long delay = BackOff.computeDelayMs(attempt, backoffMs, MAX_BACKOFF_MS);
+                        retryTimer.schedule(() -> attemptAsync(request, url, attempt + 1, result),
+                                delay, TimeUnit.MILLISECONDS);
+                    } else {
+                        result.completeExceptionally(cause);
+                    }
+                });
+    }
+
+    private HttpRequest buildRequest(String url, String etag, String lastModified) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("User-Agent", userAgent)
+                .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
+                .header("Accept-Encoding", "gzip, deflate, br")
+                .GET();
+        if (etag != null && !etag.isEmpty()) {
+            builder.header("If-None-Match", etag);
+        }
+        if (lastModified != null && !lastModified.isEmpty()) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+        return builder.build();
+    }
+
+    // look at the headers, then read (or skip) the body
+    private FetchResult toResult(String url, HttpResponse<InputStream> response) throws IOException {
+        int status = response.statusCode();
+
+        String contentType = response.headers()
+                .firstValue("Content-Type").orElse(null);
+
+        long contentLength = response.headers()
+                .firstValueAsLong("Content-Length").orElse(-1L);
+
+        try (InputStream in = response.body()) {
+            // headers tell us we don't want this body: close without reading it
+            if (status != 200 || !isHtml(contentType)) {
+                return new FetchResult(status, null, null, url, contentType, contentLength, false, response.headers());
+            }
+            if (contentLength > maxBodyBytes) {
+                return new FetchResult(status, null, null, url, contentType, contentLength, true, response.headers());
+            }
+
+            // decompress while reading, so the cap applies to the real page size
+            // and we never hold the compressed and the plain body at the same time
+            String encoding = response.headers().firstValue("Content-Encoding").orElse("");
+            byte[] bodyBytes = readCapped(decoding(in, encoding), maxBodyBytes);
+            if (bodyBytes == null) {
+                return new FetchResult(status, null, null, url, contentType, contentLength, true, response.headers());
+            }
+
+            // keep the raw bytes, they are only turned into a String when someone asks
+            return new FetchResult(
+                    status,
+                    bodyBytes,
+                    CharsetDetector.detect(bodyBytes, contentType),
+                    url,
+                    contentType,
+                    contentLength,
+                    false,
+                    response.headers()
+            );
+        }
+    }
+
+    // read at most maxBytes from the stream, or return null if the body is larger
+    private static byte[] readCapped(InputStream in, long maxBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        byte[] chunk = new byte[8192];
+        long total = 0;
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            total += n;
+            if (total > maxBytes) {
+                return null;
+            }
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Wrap the raw body stream in a streaming decoder for its Content-Encoding.
+     * Supports gzip, deflate (zlib-wrapped or raw) and brotli.
+     */
+    private static InputStream decoding(InputStream in, String encoding) throws IOException {
+        switch (encoding.trim().toLowerCase()) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in, 8192);
+            case "deflate": {
+                // "deflate" should be zlib-wrapped, but some servers send raw deflate
+                PushbackInputStream pin = new PushbackInputStream(in, 2);
+                byte[] head = pin.readNBytes(2);
+                pin.unread(head);
+                boolean zlib = head.length == 2
+                        && (head[0] & 0x0F) == 8
+                        && (((head[0] & 0xFF) << 8) | (head[1] & 0xFF)) % 31 == 0;
+                return new InflaterInputStream(pin, new Inflater(!zlib), 8192);
+            }
+            case "br":
+                return new BrotliInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * Simple value object that holds everything the crawler needs
+     * from an HTTP fetch.
+     *
+     * The body is kept as raw bytes plus the detected charset. body() decodes
+     * it the first time it is needed and caches the String, so pages we never
+     * parse are never copied into UTF-16.
+     * bodyBytes is null when the body was not read (not 200, not HTML, too large).
+     */
+    public static class FetchResult {
+        public final int statusCode;
+        public final byte[] bodyBytes;
+        public final Charset charset;
+        public final String url;
+        public final String contentType;
+        public final long contentLength;
+        // the body was bigger than maxBodyBytes and the download was aborted
+        public final boolean tooLarge;
+        // all response headers (ETag, Last-Modified, Cache-Control, ...)
+        public final HttpHeaders headers;
+
+        private volatile String decoded;
+
+        public FetchResult(int statusCode,
+                           byte[] bodyBytes,
+                           Charset charset,
+                           String url,
+                           String contentType,
+                           long contentLength,
+                           boolean tooLarge,
+                           HttpHeaders headers) {
+            this.statusCode = statusCode;
+            this.bodyBytes = bodyBytes;
+            this.charset = (charset != null) ? charset : StandardCharsets.UTF_8;
+            this.url = url;
+            this.contentType = contentType;
+            this.contentLength = contentLength;
+            this.tooLarge = tooLarge;
+            this.headers = (headers != null) ? headers : HttpHeaders.of(Map.of(), (k, v) -> true);
+        }
+
+        // 304: the page did not change since the validators we sent
+        public boolean notModified() {
+            return statusCode == 304;
+        }
+
+        public String etag() {
+            return headers.firstValue("ETag").orElse(null);
+        }
+
+        public String lastModified() {
+            return headers.firstValue("Last-Modified").orElse(null);
+        }
+
+        // the body as text (decoded once, on first use), or null if it was not read
+        public String body() {
+            if (bodyBytes == null) {
+                return null;
+            }
+            String s = decoded;
+            if (s == null) {
+                s = new String(bodyBytes, charset);
+                decoded = s;
+            }
+            return s;
+        }
+    }
+}
@@ -1,46 +1,109 @@
-package com.potato.parser;
-
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-
-import java.util.HashSet;
-import java.util.Set;
-
-public class HtmlParser {
-
-    /**
-     * Parse the raw HTML into a Jsoup Document, extract the page title
-     * and all absolute links (<a href="...">).
-     *
-     * @param html    the HTML source we fetched
-     * @param baseUrl the URL we fetched it from (used by Jsoup to resolve relative links)
-     * @return a simple ParsedPage with title + unique links
-     */
-    public ParsedPage parse(String html, String baseUrl) {
-        Document doc = Jsoup.parse(html, baseUrl);
-
-        String title = doc.title();
-        Set<String> links = new HashSet<>();
-
-        Elements anchors = doc.select("a[href]");
-        for (Element a : anchors) {
-            String abs = a.attr("abs:href");
-            if (abs != null && !abs.isBlank()) {
-                links.add(abs.split("#")[0]);
-            }
-        }
-        return new ParsedPage(title, links);
-    }
-
-    public static class ParsedPage {
-        public final String title;
-        public final Set<String> links;
-
-        public ParsedPage(String title, Set<String> links) {
-            this.title = title;
-            this.links = links;
-        }
-    }
-}
\ No newline at end of file
+package com.potato.parser;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class HtmlParser {
+
+    private final boolean streaming;
+    private final LinkExtractor extractor = new LinkExtractor();
+
+    public HtmlParser() {
+        this(true);
+    }
+
+    /**
+     * @param streaming extract with the single-pass LinkExtractor instead of
+     *                  building a Jsoup Document (Jsoup is still used if it fails)
+     */
+    public HtmlParser(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Extract the page title, the visible text, all absolute links (<a href="...">),
+     * the canonical URL and the meta robots flags.
+     *
+     * @param html    the HTML source we fetched
+     * @param baseUrl the URL we fetched it from (used to resolve relative links)
+     * @return a simple ParsedPage with title + text + unique links
+     */
+    public ParsedPage parse(String html, String baseUrl) {
+        if (streaming) {
+            try {
+                return extractor.extract(html, baseUrl);
+            } catch (RuntimeException e) {
+                System.out.println("Streaming parse failed for " + baseUrl + ", using Jsoup: " + e);
+            }
+        }
+        return parseDocument(html, baseUrl);
+    }
+
+    /**
+     * Full parse into a Jsoup Document.
+     */
+    public ParsedPage parseDocument(String html, String baseUrl) {
+        Document doc = Jsoup.parse(html, baseUrl);
+
+        String title = doc.title();
+        Set<String> links = new HashSet<>();
+
+        Elements anchors = doc.select("a[href]");
+        for (Element a : anchors) {
+            String abs = a.attr("abs:href");
+            if (abs != null && !abs.isBlank()) {
+                links.add(abs.split("#")[0]);
+            }
+        }
+
+        String canonical = null;
+        Element link = doc.selectFirst("link[rel~=(?i)(^|\\s)canonical(\\s|$)][href]");
+        if (link != null && !link.attr("abs:href").isEmpty()) {
+            canonical = link.attr("abs:href").split("#")[0];
+        }
+
+        boolean noindex = false;
+        boolean nofollow = false;
+        for (Element meta : doc.select("meta[name][content]")) {
+            if (!meta.attr("name").trim().equalsIgnoreCase("robots")) {
+                continue;
+            }
+            for (String token : meta.attr("content").toLowerCase().split("[,\\s]+")) {
+                noindex |= token.equals("noindex") || token.equals("none");
+                nofollow |= token.equals("nofollow") || token.equals("none");
+            }
+        }
+        return new ParsedPage(title, links, doc.text(), canonical, noindex, nofollow);
+    }
+
+    public static class ParsedPage {
+        public final String title;
+        public final Set<String> links;
+        // visible text, used for near-duplicate detection
+        public final String text;
+        // absolute <link rel="canonical"> target, or null
+        public final String canonical;
+        // <meta name="robots"> flags
+        public final boolean noindex;
+        public final boolean nofollow;
+
+        public ParsedPage(String title, Set<String> links, String text) {
+            this(title, links, text, null, false, false);
+        }
+
+        public ParsedPage(String title, Set<String> links, String text,
+                          String canonical, boolean noindex, boolean nofollow) {
+            this.title = title;
+            this.links = links;
+            this.text = text;
+            this.canonical = canonical;
+            this.noindex = noindex;
+            this.nofollow = nofollow;
+        }
+    }
+}
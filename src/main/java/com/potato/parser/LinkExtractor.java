@@ -0,0 +1,431 @@
+package com.potato.parser;
+
+import org.jsoup.internal.StringUtil;
+import org.jsoup.nodes.Entities;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.potato.util.ParsedUrl;
+
+/**
+ * Single-pass HTML tokenizer that pulls out only what the crawler needs:
+ * title, <base href>, anchor hrefs, <link rel="canonical"> and
+ * <meta name="robots">, plus the visible text for near-duplicate detection.
+ *
+ * No tree is built: tags are read as they come, script/style bodies and
+ * comments are skipped. hrefs are resolved and normalized with ParsedUrl;
+ * links that are not http(s) (mailto:, javascript:, ...) are left out.
+ *
+ * All state lives in a per-call Scan object, so one instance can be shared
+ * between threads.
+ */
+public class LinkExtractor {
+
+    public HtmlParser.ParsedPage extract(String html, String pageUrl) {
+        Scan s = new Scan(html, pageUrl);
+        s.run();
+        return new HtmlParser.ParsedPage(
+                normalizeSpace(s.title),
+                s.links,
+                s.text.toString(),
+                s.canonical,
+                s.noindex,
+                s.nofollow);
+    }
+
+    private static final class Scan {
+        final String html;
+        final int n;
+        String base;
+        // null if the page URL is not http(s), then Jsoup's resolver is used
+        ParsedUrl baseUrl;
+        boolean baseSeen;
+        final Set<String> links = new HashSet<>();
+        // visible text with whitespace already collapsed
+        final StringBuilder text;
+        boolean pendingSpace;
+        String title;
+        String canonical;
+        boolean noindex;
+        boolean nofollow;
+
+        // attributes of the tag being read; only the ones we look at
+        String href;
+        String rel;
+        String name;
+        String content;
+
+        Scan(String html, String pageUrl) {
+            this.html = html;
+            this.n = html.length();
+            this.base = pageUrl;
+            this.baseUrl = ParsedUrl.parse(pageUrl);
+            this.text = new StringBuilder(Math.max(16, html.length() / 4));
+        }
+
+        void run() {
+            int i = 0;
+            while (i < n) {
+                int lt = html.indexOf('<', i);
+                if (lt < 0) {
+                    appendText(i, n);
+                    break;
+                }
+                appendText(i, lt);
+                i = tag(lt);
+            }
+        }
+
+        // i points at '<', returns the position after the construct
+        int tag(int i) {
+            if (i + 1 >= n) {
+                appendText(i, n);
+                return n;
+            }
+            char c = html.charAt(i + 1);
+            if (c == '!') {
+                if (html.startsWith("<!--", i)) {
+                    int end = html.indexOf("-->", i + 4);
+                    return end < 0 ? n : end + 3;
+                }
+                if (html.startsWith("<![CDATA[", i)) {
+                    int end = html.indexOf("]]>", i + 9);
+                    return end < 0 ? n : end + 3;
+                }
+                return skipPast(i, '>'); // doctype
+            }
+            if (c == '?') {
+                return skipPast(i, '>');
+            }
+            boolean end = c == '/';
+            int p = end ? i + 2 : i + 1;
+            if (p >= n || !isLetter(html.charAt(p))) {
+                // a stray '<' is text
+                appendText(i, i + 1);
+                return i + 1;
+            }
+            int nameStart = p;
+            while (p < n && !isSpace(html.charAt(p)) && html.charAt(p) != '>' && html.charAt(p) != '/') {
+                p++;
+            }
+            int nameEnd = p;
+            pendingSpace = true;
+
+            if (end) {
+                return skipPast(p, '>');
+            }
+
+            href = null;
+            rel = null;
+            name = null;
+            content = null;
+            p = attributes(p);
+
+            if (is(nameStart, nameEnd, "a")) {
+                addLink(href);
+            } else if (is(nameStart, nameEnd, "base")) {
+                if (!baseSeen && href != null) {
+                    baseSeen = true;
+                    String abs = resolve(href);
+                    if (abs != null) {
+                        base = abs;
+                        baseUrl = ParsedUrl.parse(abs);
+                    }
+                }
+            } else if (is(nameStart, nameEnd, "link")) {
+                if (canonical == null && href != null && rel != null && hasToken(rel, "canonical")) {
+                    canonical = resolve(href);
+                }
+            } else if (is(nameStart, nameEnd, "meta")) {
+                if (name != null && content != null && name.trim().equalsIgnoreCase("robots")) {
+                    robots(content);
+                }
+            } else if (is(nameStart, nameEnd, "title")) {
+                return rawText(p, "title", true, false);
+            } else if (is(nameStart, nameEnd, "script") || is(nameStart, nameEnd, "style")) {
+                return rawText(p, html.substring(nameStart, nameEnd), false, false);
+            } else if (is(nameStart, nameEnd, "textarea")) {
+                return rawText(p, "textarea", false, true);
+            }
+            return p;
+        }
+
+        // read attributes up to and including '>', remember the interesting ones
+        int attributes(int p) {
+            while (p < n) {
+                char c = html.charAt(p);
+                if (c == '>') {
+                    return p + 1;
+                }
+                if (isSpace(c) || c == '/') {
+                    p++;
+                    continue;
+                }
+                int an = p;
+                while (p < n && !isSpace(html.charAt(p)) && "=>/".indexOf(html.charAt(p)) < 0) {
+                    p++;
+                }
+                int ae = p;
+                while (p < n && isSpace(html.charAt(p))) {
+                    p++;
+                }
+                String value = "";
+                if (p < n && html.charAt(p) == '=') {
+                    p++;
+                    while (p < n && isSpace(html.charAt(p))) {
+                        p++;
+                    }
+                    int vs;
+                    int ve;
+                    if (p < n && (html.charAt(p) == '"' || html.charAt(p) == '\'')) {
+                        char q = html.charAt(p);
+                        vs = p + 1;
+                        ve = html.indexOf(q, vs);
+                        if (ve < 0) {
+                            ve = n;
+                        }
+                        p = Math.min(n, ve + 1);
+                    } else {
+                        vs = p;
+                        while (p < n && !isSpace(html.charAt(p)) && html.charAt(p) != '>') {
+                            p++;
+                        }
+                        ve = p;
+                    }
+                    if (wanted(an, ae)) {
+                        value = decode(html, vs, ve, true);
+                    }
+                }
+                // the first occurrence of an attribute wins, as in browsers
+                if (is(an, ae, "href")) {
+                    if (href == null) href = value;
+                } else if (is(an, ae, "rel")) {
+                    if (rel == null) rel = value;
+                } else if (is(an, ae, "name")) {
+                    if (name == null) name = value;
+                } else if (is(an, ae, "content")) {
+                    if (content == null) content = value;
+                }
+            }
+            return n;
+        }
+
+        boolean wanted(int an, int ae) {
+            return is(an, ae, "href") || is(an, ae, "rel") || is(an, ae, "name") || is(an, ae, "content");
+        }
+
+        // content up to </tag>; kept as title or visible text, or skipped (script, style)
+        int rawText(int p, String tag, boolean isTitle, boolean visible) {
+            int end = p;
+            while (true) {
+                end = html.indexOf("</", end);
+                if (end < 0) {
+                    end = n;
+                    break;
+                }
+                if (html.regionMatches(true, end + 2, tag, 0, tag.length())) {
+                    break;
+                }
+                end += 2;
+            }
+            if (isTitle && title == null) {
+                title = decode(html, p, end, false);
+            }
+            if (isTitle || visible) {
+                pendingSpace = true;
+                appendText(p, end);
+            }
+            return end >= n ? n : skipPast(end, '>');
+        }
+
+        void addLink(String h) {
+            if (h == null) {
+                return;
+            }
+            String abs = resolve(h);
+            if (abs != null) {
+                links.add(abs);
+            }
+        }
+
+        // absolute URL without fragment, or null if it cannot be used
+        String resolve(String href) {
+            if (baseUrl != null) {
+                ParsedUrl target = baseUrl.resolve(href);
+                return (target != null) ? target.url : null;
+            }
+            String abs = StringUtil.resolve(base, href.trim());
+            return abs.isBlank() ? null : stripFragment(abs);
+        }
+
+        void robots(String value) {
+            for (String token : value.toLowerCase().split("[,\\s]+")) {
+                if (token.equals("noindex") || token.equals("none")) {
+                    noindex = true;
+                }
+                if (token.equals("nofollow") || token.equals("none")) {
+                    nofollow = true;
+                }
+            }
+        }
+
+        void appendText(int from, int to) {
+            if (from >= to) {
+                return;
+            }
+            if (indexOf(html, '&', from, to) < 0) {
+                appendCollapsed(html, from, to);
+            } else {
+                String decoded = decode(html, from, to, false);
+                appendCollapsed(decoded, 0, decoded.length());
+            }
+        }
+
+        // like Jsoup's text(): runs of whitespace become one space, no leading/trailing space
+        void appendCollapsed(String s, int from, int to) {
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (isSpace(c) || c == '\u00a0') {
+                    pendingSpace = true;
+                } else {
+                    if (pendingSpace && text.length() > 0) {
+                        text.append(' ');
+                    }
+                    pendingSpace = false;
+                    text.append(c);
+                }
+            }
+        }
+
+        int skipPast(int p, char c) {
+            int e = html.indexOf(c, p);
+            return e < 0 ? n : e + 1;
+        }
+
+        boolean is(int from, int to, String s) {
+            return to - from == s.length() && html.regionMatches(true, from, s, 0, s.length());
+        }
+    }
+
+    /**
+     * Decode character references in html[from, to).
+     *
+     * Named references use Jsoup's entity table and its rules: only the
+     * legacy names (&amp, &copy, ...) may leave out the ';', and inside an
+     * attribute value a reference followed by '=', '-', '_' or a letter or
+     * digit stays literal, so "?q=x&order=asc" or "&copy=1" in an href are
+     * not touched. Unknown references are kept as they are.
+     */
+    static String decode(String html, int from, int to, boolean inAttribute) {
+        if (indexOf(html, '&', from, to) < 0) {
+            return html.substring(from, to);
+        }
+        StringBuilder sb = new StringBuilder(to - from);
+        int i = from;
+        while (i < to) {
+            char c = html.charAt(i);
+            if (c != '&') {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            int j = i + 1;
+            if (j < to && html.charAt(j) == '#') {
+                j++;
+                boolean hex = j < to && (html.charAt(j) == 'x' || html.charAt(j) == 'X');
+                if (hex) j++;
+                int ds = j;
+                while (j < to && Character.digit(html.charAt(j), hex ? 16 : 10) >= 0 && j - ds < 8) {
+                    j++;
+                }
+                if (j > ds) {
+                    int cp = Integer.parseInt(html.substring(ds, j), hex ? 16 : 10);
+                    sb.appendCodePoint(Character.isValidCodePoint(cp) && cp != 0 ? cp : 0xfffd);
+                    i = (j < to && html.charAt(j) == ';') ? j + 1 : j;
+                    continue;
+                }
+            } else {
+                // letters then digits, as Jsoup reads a reference name ("sup2", "frac12")
+                while (j < to && isLetter(html.charAt(j)) && j - i < 32) {
+                    j++;
+                }
+                while (j < to && html.charAt(j) >= '0' && html.charAt(j) <= '9' && j - i < 32) {
+                    j++;
+                }
+                String name = html.substring(i + 1, j);
+                boolean semicolon = j < to && html.charAt(j) == ';';
+                if (j > i + 1 && (Entities.isBaseNamedEntity(name) || (semicolon && Entities.isNamedEntity(name)))) {
+                    char next = (j < to) ? html.charAt(j) : 0;
+                    boolean literal = inAttribute && (isAlnum(next) || next == '=' || next == '-' || next == '_');
+                    if (!literal) {
+                        sb.append(Entities.getByName(name));
+                        i = semicolon ? j + 1 : j;
+                        continue;
+                    }
+                }
+            }
+            sb.append('&');
+            i++;
+        }
+        return sb.toString();
+    }
+
+    // String.indexOf without scanning past to
+    private static int indexOf(String s, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String stripFragment(String url) {
+        int hash = url.indexOf('#');
+        return hash < 0 ? url : url.substring(0, hash);
+    }
+
+    private static boolean hasToken(String value, String token) {
+        for (String t : value.trim().split("\\s+")) {
+            if (t.equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // collapse runs of whitespace to one space and trim, like Jsoup's title()
+    private static String normalizeSpace(String s) {
+        if (s == null) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (isSpace(c) || c == '\u00a0') {
+                space = out.length() > 0;
+            } else {
+                if (space) {
+                    out.append(' ');
+                    space = false;
+                }
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isAlnum(char c) {
+        return isLetter(c) || (c >= '0' && c <= '9');
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -1,39 +1,168 @@
-package com.potato.robots;
-
-import java.net.URI;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-public class RobotsCache {
-
-    // component that actually fetches and parses robots.txt from the web
-    private final RobotsFetcher fetcher;
-    
-    // in-memory cache: host -> parsed robots rules
-    private final Map<String, RobotsRules> cache = new ConcurrentHashMap<>();
-
-    public RobotsCache(RobotsFetcher fetcher) {
-        this.fetcher = fetcher;
-    }
-
-    /**
-     * Returns the robots.txt rules for the given URL.
-     * If we already fetched rules for that host, return the cached version.
-     * Otherwise, fetch and parse robots.txt once and store it.
-     */
-    public RobotsRules getRulesFor(String url) {
-        try {
-            URI uri = new URI(url);
-            String scheme = uri.getScheme() == null ? "https" : uri.getScheme();
-            String host = uri.getHost();
-            if (host == null) {
-                return new RobotsRules();
-            }
-            String key = scheme + "://" + host;
-
-            return cache.computeIfAbsent(key, k -> fetcher.fetchForHost(scheme, host));
-        } catch (Exception e) {
-            return new RobotsRules();
-        }
-    }
-}
\ No newline at end of file
+package com.potato.robots;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.potato.util.ParsedUrl;
+
+/**
+ * robots.txt rules per site, loaded in the background and kept for a while.
+ *
+ * - bounded: the least recently used sites are dropped beyond maxEntries
+ * - expiry: rules are kept for the response's Cache-Control max-age,
+ *   but never longer than ttlMs (24h by default, as RFC 9309 suggests)
+ * - 4xx: no robots.txt, everything allowed, kept like a normal file
+ * - 5xx / timeout: nothing allowed, retried after errorTtlMs, doubling
+ *   with every further failure; a copy we had before keeps being used meanwhile
+ * - single flight: one fetch per site at a time, on its own virtual thread;
+ *   the map lock is only held for lookups, never during a fetch, so a slow
+ *   site does not hold up any other site
+ * - an expired copy is served while its refresh runs
+ */
+public class RobotsCache {
+
+    // shortest time any answer is kept, so "no-cache" does not mean a fetch per URL
+    private static final long MIN_TTL_MS = 60_000;
+
+    // component that actually fetches and parses robots.txt from the web
+    private final RobotsFetcher fetcher;
+    private final long ttlMs;
+    private final long errorTtlMs;
+
+    // scheme://host[:port] -> rules, in access order for LRU eviction
+    private final Map<String, Entry> cache;
+
+    private final ExecutorService loader = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("robots-", 0).factory());
+
+    public RobotsCache(RobotsFetcher fetcher) {
+        this(fetcher, 10_000, 86_400_000L, 600_000L);
+    }
+
+    public RobotsCache(RobotsFetcher fetcher, int maxEntries, long ttlMs, long errorTtlMs) {
+        this.fetcher = fetcher;
+        this.ttlMs = Math.max(MIN_TTL_MS, ttlMs);
+        this.errorTtlMs = Math.max(MIN_TTL_MS, Math.min(this.ttlMs, errorTtlMs));
+        int max = Math.max(1, maxEntries);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > max;
+            }
+        };
+    }
+
+    // what we know about one site
+    private static final class Entry {
+        // null until the first fetch finished
+        final RobotsRules rules;
+        // completed future of rules, handed out on every hit
+        final CompletableFuture<RobotsRules> ready;
+        final long expiresAt;
+        // failed fetches in a row
+        final int failures;
+        // the fetch in progress, or null
+        final CompletableFuture<RobotsRules> loading;
+
+        Entry(RobotsRules rules, long expiresAt, int failures, CompletableFuture<RobotsRules> loading) {
+            this.rules = rules;
+            this.ready = (rules != null) ? CompletableFuture.completedFuture(rules) : null;
+            this.expiresAt = expiresAt;
+            this.failures = failures;
+            this.loading = loading;
+        }
+    }
+
+    /**
+     * Returns the robots.txt rules for the given URL.
+     * If we already fetched rules for that site, return the cached version.
+     * Otherwise, fetch and parse robots.txt once and store it.
+     */
+    public RobotsRules getRulesFor(String url) {
+        ParsedUrl parsed = ParsedUrl.parse(url);
+        if (parsed == null) {
+            return new RobotsRules();
+        }
+        return getRulesFor(parsed);
+    }
+
+    // blocking variant of getRulesAsync, waits only if the site was never loaded before
+    public RobotsRules getRulesFor(ParsedUrl url) {
+        return getRulesAsync(url).join();
+    }
+
+    /**
+     * Rules for the site of url. The future is already complete if a copy is
+     * cached (even an expired one, whose refresh then starts in the background);
+     * otherwise it completes when the site's single fetch is done. It never
+     * completes exceptionally.
+     */
+    public CompletableFuture<RobotsRules> getRulesAsync(ParsedUrl url) {
+        // robots.txt applies per scheme, host and port, so the origin is the cache key
+        String key = url.origin();
+        CompletableFuture<RobotsRules> loading;
+        Entry previous;
+        synchronized (cache) {
+            previous = cache.get(key);
+            if (previous != null) {
+                boolean fresh = System.currentTimeMillis() < previous.expiresAt;
+                if (previous.rules != null && (fresh || previous.loading != null)) {
+                    return previous.ready;
+                }
+                if (previous.loading != null) {
+                    return previous.loading;
+                }
+            }
+            loading = new CompletableFuture<>();
+            cache.put(key, (previous == null)
+                    ? new Entry(null, 0, 0, loading)
+                    : new Entry(previous.rules, previous.expiresAt, previous.failures, loading));
+        }
+
+        String authority = (url.port >= 0) ? url.host + ":" + url.port : url.host;
+        loader.execute(() -> load(key, url.scheme, authority, previous, loading));
+        return (previous != null && previous.rules != null) ? previous.ready : loading;
+    }
+
+    private void load(String key, String scheme, String authority, Entry previous,
+                      CompletableFuture<RobotsRules> loading) {
+        RobotsFetcher.Response response;
+        try {
+            response = fetcher.fetch(scheme, authority);
+        } catch (RuntimeException e) {
+            response = new RobotsFetcher.Response(RobotsFetcher.Status.NETWORK_ERROR, RobotsRules.disallowAll(), -1);
+        }
+
+        long now = System.currentTimeMillis();
+        Entry next;
+        switch (response.status) {
+            case OK, UNAVAILABLE -> {
+                long ttl = (response.maxAgeMs >= 0) ? Math.min(response.maxAgeMs, ttlMs) : ttlMs;
+                next = new Entry(response.rules, now + Math.max(MIN_TTL_MS, ttl), 0, null);
+            }
+            default -> {
+                int failures = (previous != null) ? previous.failures + 1 : 1;
+                long retry = Math.min(ttlMs, errorTtlMs << Math.min(10, failures - 1));
+                // a site that was readable before keeps its last rules until it answers again
+                RobotsRules rules = (previous != null && previous.rules != null) ? previous.rules : response.rules;
+                System.out.println("robots.txt of " + key + " unreachable (" + response.status
+                        + "), retry in " + (retry / 1000) + "s");
+                next = new Entry(rules, now + retry, failures, null);
+            }
+        }
+        synchronized (cache) {
+            cache.put(key, next);
+        }
+        loading.complete(next.rules);
+    }
+
+    // sites currently cached
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+}
@@ -1,99 +1,219 @@
-package com.potato.robots;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URI;
-import java.net.URL;
-import java.net.HttpURLConnection;
-
-public class RobotsFetcher {
-
-    // user agent to send when requesting /robots.txt
-    private final String userAgent;
-
-    public RobotsFetcher(String userAgent) {
-        this.userAgent = userAgent;
-    }
-
-    /**
-     * Fetch and parse robots.txt for a given scheme + host.
-     * Only implements a simple subset:
-     * - User-agent: *
-     * - Disallow: ...
-     * - Sitemap: ...
-     */
-    public RobotsRules fetchForHost(String scheme, String host) {
-        RobotsRules rules = new RobotsRules();
-
-        String robotsUrl = scheme + "://" + host + "/robots.txt";
-
-        try {
-            URI robotsUri = URI.create(robotsUrl);
-            URL url = robotsUri.toURL();
-
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestProperty("User-Agent", userAgent);
-            conn.setConnectTimeout(3000);
-            conn.setReadTimeout(3000);
-
-            int code = conn.getResponseCode();
-            if (code != 200) {
-                return rules;
-            }
-
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream()))) {
-                boolean inGlobalUserAgent = false;
-                String line;
-                while ((line = br.readLine()) != null) {
-                    line = line.trim();
-
-                    if (line.isEmpty() || line.startsWith("#")) {
-                        continue;
-                    }
-
-                    String lower = line.toLowerCase();
-
-                    if (lower.startsWith("user-agent:")) {
-                        String ua = line.substring("user-agent:".length()).trim();
-                        inGlobalUserAgent = ua.equals("*");
-
-                    } else if (inGlobalUserAgent && lower.startsWith("disallow:")) {
-                        String path = line.substring("disallow:".length()).trim();
-                        if (!path.isEmpty()) {
-                            rules.addDisallow(path);
-                        }
-
-                    } else if (lower.startsWith("sitemap:")) {
-                        String sm = line.substring("sitemap:".length()).trim();
-                        if (!sm.isEmpty()) {
-                            rules.addSitemap(sm);
-                        }
-                    }
-                }
-            }
-        } catch (IOException e) {
-            return rules;
-        }
-
-        return rules;
-    }
-
-    /**
-     * Convenience method: take a full URL, extract scheme + host,
-     * and then fetch robots.txt for that host.
-     */
-    public RobotsRules fetchForUrl(String urlStr) {
-        try {
-            URI uri = URI.create(urlStr);
-            String scheme = uri.getScheme() == null ? "https" : uri.getScheme();
-            String host = uri.getHost();
-            if (host == null) {
-                return new RobotsRules();
-            }
-            return fetchForHost(scheme, host);
-        } catch (Exception e) {
-            return new RobotsRules();
-        }
-    }
-}
+package com.potato.robots;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URL;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+
+public class RobotsFetcher {
+
+    // user agent to send when requesting /robots.txt
+    private final String userAgent;
+    // the name robots.txt groups address us by, e.g. "PotatorCrawler"
+    private final String productToken;
+
+    public RobotsFetcher(String userAgent) {
+        this.userAgent = userAgent;
+        this.productToken = agentToken(userAgent);
+    }
+
+    // how a robots.txt request ended, decides what the rules are and how long they are kept
+    public enum Status {
+        // 2xx: the file was parsed
+        OK,
+        // 4xx (except 429): no robots.txt, everything is allowed
+        UNAVAILABLE,
+        // 5xx or 429: the site has a problem, nothing may be fetched for now
+        SERVER_ERROR,
+        // timeout, refused connection, DNS failure, ...: same as a server error
+        NETWORK_ERROR
+    }
+
+    public static class Response {
+        public final Status status;
+        public final RobotsRules rules;
+        // Cache-Control max-age in ms, or -1 if the response had none
+        public final long maxAgeMs;
+
+        Response(Status status, RobotsRules rules, long maxAgeMs) {
+            this.status = status;
+            this.rules = rules;
+            this.maxAgeMs = maxAgeMs;
+        }
+    }
+
+    /**
+     * Fetch and parse robots.txt for a given scheme + host.
+     * See parse() for what is understood.
+     */
+    public RobotsRules fetchForHost(String scheme, String host) {
+        return fetch(scheme, host).rules;
+    }
+
+    /**
+     * Fetch robots.txt for a given scheme + host, with the outcome
+     * classified as RFC 9309 asks: a missing file allows everything,
+     * an unreachable one disallows everything.
+     */
+    public Response fetch(String scheme, String host) {
+        String robotsUrl = scheme + "://" + host + "/robots.txt";
+
+        try {
+            URI robotsUri = URI.create(robotsUrl);
+            URL url = robotsUri.toURL();
+
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestProperty("User-Agent", userAgent);
+            conn.setConnectTimeout(3000);
+            conn.setReadTimeout(3000);
+
+            int code = conn.getResponseCode();
+            long maxAgeMs = maxAgeMs(conn.getHeaderField("Cache-Control"));
+            if (code >= 500 || code == 429) {
+                return new Response(Status.SERVER_ERROR, RobotsRules.disallowAll(), maxAgeMs);
+            }
+            if (code >= 400) {
+                return new Response(Status.UNAVAILABLE, new RobotsRules(), maxAgeMs);
+            }
+            if (code < 200 || code >= 300) {
+                // redirects are followed by HttpURLConnection, anything left is treated as no file
+                return new Response(Status.UNAVAILABLE, new RobotsRules(), maxAgeMs);
+            }
+
+            try (BufferedReader br = new BufferedReader(
+                    new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+                return new Response(Status.OK, parse(br, productToken), maxAgeMs);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return new Response(Status.NETWORK_ERROR, RobotsRules.disallowAll(), -1);
+        }
+    }
+
+    // "max-age=N" of a Cache-Control header in ms; "no-store" / "no-cache" count as 0
+    static long maxAgeMs(String cacheControl) {
+        if (cacheControl == null) {
+            return -1;
+        }
+        for (String directive : cacheControl.split(",")) {
+            String d = directive.trim().toLowerCase();
+            if (d.equals("no-store") || d.equals("no-cache")) {
+                return 0;
+            }
+            if (d.startsWith("max-age=")) {
+                try {
+                    return Math.max(0, Long.parseLong(d.substring(8).replace("\"", "").trim())) * 1000;
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse a robots.txt file (RFC 9309):
+     * - groups of User-agent lines followed by Allow / Disallow rules
+     * - the rules of every group naming our product token (case-insensitive)
+     *   are used; only if there is none, those of the "User-agent: *" groups
+     * - Sitemap lines anywhere in the file
+     */
+    static RobotsRules parse(BufferedReader br, String productToken) throws IOException {
+        RobotsRules own = new RobotsRules();
+        RobotsRules global = new RobotsRules();
+        boolean ownGroupSeen = false;
+
+        // the group being read applies to us / to everyone
+        boolean inOwnGroup = false;
+        boolean inGlobalGroup = false;
+        // consecutive User-agent lines belong to the same group
+        boolean lastWasAgent = false;
+
+        String line;
+        while ((line = br.readLine()) != null) {
+            int hash = line.indexOf('#');
+            if (hash >= 0) {
+                line = line.substring(0, hash);
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String key = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+
+            switch (key) {
+                case "user-agent" -> {
+                    if (!lastWasAgent) {
+                        inOwnGroup = false;
+                        inGlobalGroup = false;
+                    }
+                    lastWasAgent = true;
+                    if (value.equals("*")) {
+                        inGlobalGroup = true;
+                    } else if (!productToken.isEmpty() && agentToken(value).equalsIgnoreCase(productToken)) {
+                        inOwnGroup = true;
+                        ownGroupSeen = true;
+                    }
+                }
+                case "allow", "disallow" -> {
+                    lastWasAgent = false;
+                    // an empty Disallow allows everything, i.e. it is no rule
+                    if (value.isEmpty()) {
+                        continue;
+                    }
+                    RobotsRules target = inOwnGroup ? own : inGlobalGroup ? global : null;
+                    if (target == null) {
+                        continue;
+                    }
+                    if (key.equals("allow")) {
+                        target.addAllow(value);
+                    } else {
+                        target.addDisallow(value);
+                    }
+                }
+                case "sitemap" -> {
+                    if (!value.isEmpty()) {
+                        own.addSitemap(value);
+                        global.addSitemap(value);
+                    }
+                }
+                default -> lastWasAgent = false;
+            }
+        }
+        return ownGroupSeen ? own : global;
+    }
+
+    // "PotatorCrawler/1.0 (+https://...)" -> "PotatorCrawler"
+    static String agentToken(String userAgent) {
+        int i = 0;
+        while (i < userAgent.length()) {
+            char c = userAgent.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '-')) {
+                break;
+            }
+            i++;
+        }
+        return userAgent.substring(0, i);
+    }
+
+    /**
+     * Convenience method: take a full URL, extract scheme + host,
+     * and then fetch robots.txt for that host.
+     */
+    public RobotsRules fetchForUrl(String urlStr) {
+        try {
+            URI uri = URI.create(urlStr);
+            String scheme = uri.getScheme() == null ? "https" : uri.getScheme();
+            String host = uri.getHost();
+            if (host == null) {
+                return new RobotsRules();
+            }
+            return fetchForHost(scheme, host);
+        } catch (Exception e) {
+            return new RobotsRules();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.potato.robots;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import com.potato.util.ParsedUrl;
+
+/**
+ * Allow/Disallow patterns of one robots.txt group compiled into a trie.
+ *
+ * Every pattern is one path from the root: literal characters are edges,
+ * a '*' leads to a star node that can stay where it is on any character,
+ * a trailing '$' marks the end node as anchored. Matching walks the path
+ * once and keeps the set of trie nodes the walk can be in (just one when no
+ * pattern has a '*'), so the cost depends on the path length, not on how
+ * many rules the host has.
+ *
+ * RFC 9309 precedence: the longest matching pattern wins, Allow wins a tie.
+ * Nodes are kept in flat arrays, and the node sets for wildcard patterns
+ * live in per-thread scratch arrays, so a check allocates nothing.
+ */
+final class RobotsMatcher {
+
+    // a rule is encoded as pattern length * 2 + (1 if Allow), higher wins
+    private static final int NONE = -1;
+
+    // edges of node n: edgeChars/edgeTargets[firstEdge[n] .. firstEdge[n + 1]), sorted by char
+    private final int[] firstEdge;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    // node reached through '*', or -1
+    private final int[] star;
+    // node is the target of a '*' (loops on any character)
+    private final boolean[] isStar;
+    // best rule whose pattern ends here (matches whatever follows)
+    private final int[] prefixRule;
+    // best rule whose pattern ends here with '$' (path must end here too)
+    private final int[] exactRule;
+    private final boolean hasStar;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    RobotsMatcher(List<String> allows, List<String> disallows) {
+        List<Node> nodes = new ArrayList<>();
+        Node root = new Node(nodes);
+        boolean stars = false;
+        for (String p : allows) {
+            stars |= add(root, nodes, p, true);
+        }
+        for (String p : disallows) {
+            stars |= add(root, nodes, p, false);
+        }
+        this.hasStar = stars;
+
+        int n = nodes.size();
+        int edges = 0;
+        for (Node node : nodes) {
+            edges += node.children.size();
+        }
+        firstEdge = new int[n + 1];
+        edgeChars = new char[edges];
+        edgeTargets = new int[edges];
+        star = new int[n];
+        isStar = new boolean[n];
+        prefixRule = new int[n];
+        exactRule = new int[n];
+        int e = 0;
+        for (int i = 0; i < n; i++) {
+            Node node = nodes.get(i);
+            firstEdge[i] = e;
+            for (var child : node.children.entrySet()) {
+                edgeChars[e] = child.getKey();
+                edgeTargets[e] = child.getValue().id;
+                e++;
+            }
+            star[i] = (node.star != null) ? node.star.id : -1;
+            if (node.star != null) {
+                isStar[node.star.id] = true;
+            }
+            prefixRule[i] = node.prefixRule;
+            exactRule[i] = node.exactRule;
+        }
+        firstEdge[n] = e;
+    }
+
+    /**
+     * Whether s[from..] (a path, optionally with "?query") may be fetched.
+     */
+    boolean isAllowed(String s, int from) {
+        int best = hasStar ? matchWithStars(s, from) : matchLiteral(s, from);
+        return best == NONE || (best & 1) == 1;
+    }
+
+    // no wildcards: the walk can only be in one node at a time
+    private int matchLiteral(String s, int from) {
+        int node = 0;
+        int best = prefixRule[0];
+        for (int i = from; i < s.length(); i++) {
+            node = child(node, s.charAt(i));
+            if (node < 0) {
+                return best;
+            }
+            best = Math.max(best, prefixRule[node]);
+        }
+        return Math.max(best, exactRule[node]);
+    }
+
+    private int matchWithStars(String s, int from) {
+        Scratch sc = SCRATCH.get();
+        sc.ensure(prefixRule.length);
+        int[] cur = sc.a;
+        int[] next = sc.b;
+        int curSize = 0;
+        int best = NONE;
+
+        int stamp = sc.nextStamp();
+        curSize = enter(sc, stamp, cur, curSize, 0);
+        for (int i = 0; i < curSize; i++) {
+            best = Math.max(best, prefixRule[cur[i]]);
+        }
+
+        for (int p = from; p < s.length() && curSize > 0; p++) {
+            char c = s.charAt(p);
+            stamp = sc.nextStamp();
+            int nextSize = 0;
+            for (int i = 0; i < curSize; i++) {
+                int node = cur[i];
+                if (isStar[node]) {
+                    // '*' also swallows this character
+                    nextSize = enter(sc, stamp, next, nextSize, node);
+                }
+                int target = child(node, c);
+                if (target >= 0) {
+                    nextSize = enter(sc, stamp, next, nextSize, target);
+                }
+            }
+            for (int i = 0; i < nextSize; i++) {
+                best = Math.max(best, prefixRule[next[i]]);
+            }
+            int[] t = cur;
+            cur = next;
+            next = t;
+            curSize = nextSize;
+        }
+        for (int i = 0; i < curSize; i++) {
+            best = Math.max(best, exactRule[cur[i]]);
+        }
+        return best;
+    }
+
+    // add node (and its star node, since '*' may match nothing) to set, once per step
+    private int enter(Scratch sc, int stamp, int[] set, int size, int node) {
+        if (sc.seen[node] != stamp) {
+            sc.seen[node] = stamp;
+            set[size++] = node;
+        }
+        int s = star[node];
+        if (s >= 0 && sc.seen[s] != stamp) {
+            sc.seen[s] = stamp;
+            set[size++] = s;
+        }
+        return size;
+    }
+
+    private int child(int node, char c) {
+        int lo = firstEdge[node];
+        int hi = firstEdge[node + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char k = edgeChars[mid];
+            if (k < c) {
+                lo = mid + 1;
+            } else if (k > c) {
+                hi = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    // returns whether the pattern contains a '*'
+    private static boolean add(Node root, List<Node> nodes, String raw, boolean allow) {
+        String p = ParsedUrl.normalizeEscapes(raw);
+        if (!p.startsWith("/") && !p.startsWith("*")) {
+            p = "/" + p;
+        }
+        int rule = p.length() * 2 + (allow ? 1 : 0);
+
+        int end = p.length();
+        boolean anchored = end > 0 && p.charAt(end - 1) == '$';
+        if (anchored) {
+            end--;
+        }
+        // a trailing '*' matches anything, which an unanchored pattern does anyway
+        while (end > 0 && p.charAt(end - 1) == '*') {
+            end--;
+            anchored = false;
+        }
+
+        boolean stars = false;
+        Node node = root;
+        for (int i = 0; i < end; i++) {
+            char c = p.charAt(i);
+            if (c == '*') {
+                if (i > 0 && p.charAt(i - 1) == '*') {
+                    continue;
+                }
+                if (node.star == null) {
+                    node.star = new Node(nodes);
+                }
+                node = node.star;
+                stars = true;
+            } else {
+                node = node.children.computeIfAbsent(c, k -> new Node(nodes));
+            }
+        }
+        if (anchored) {
+            node.exactRule = Math.max(node.exactRule, rule);
+        } else {
+            node.prefixRule = Math.max(node.prefixRule, rule);
+        }
+        return stars;
+    }
+
+    // trie node while compiling
+    private static final class Node {
+        final int id;
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        Node star;
+        int prefixRule = NONE;
+        int exactRule = NONE;
+
+        Node(List<Node> nodes) {
+            this.id = nodes.size();
+            nodes.add(this);
+        }
+    }
+
+    // per-thread node sets, grown to the largest matcher seen so far
+    private static final class Scratch {
+        int[] a = new int[0];
+        int[] b = new int[0];
+        int[] seen = new int[0];
+        int stamp;
+
+        void ensure(int nodes) {
+            if (seen.length < nodes) {
+                a = new int[nodes];
+                b = new int[nodes];
+                seen = new int[nodes];
+                stamp = 0;
+            }
+        }
+
+        int nextStamp() {
+            if (++stamp == Integer.MAX_VALUE) {
+                Arrays.fill(seen, 0);
+                stamp = 1;
+            }
+            return stamp;
+        }
+    }
+}
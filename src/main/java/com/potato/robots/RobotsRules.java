@@ -1,38 +1,74 @@
-package com.potato.robots;
-
-import java.util.ArrayList;
-import java.util.List;
-
-/**
- * Very simple representation of robots.txt rules.
- * - stores a list of disallowed path prefixes
- * - stores any sitemap URLs found
- *
- * This is NOT a full robots.txt implementation, just enough
- * for a polite crawler.
- */
-public class RobotsRules {
-    private final List<String> disallows = new ArrayList<>();
-    private final List<String> sitemaps = new ArrayList<>();
-
-    public void addDisallow(String path) {
-        disallows.add(path);
-    }
-
-    public boolean isAllowed(String path) {
-        for (String d : disallows) {
-            if (path.startsWith(d)) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    public void addSitemap(String url) {
-        sitemaps.add(url);
-    }
-
-    public List<String> getSitemaps() {
-        return sitemaps;
-    }
-}
+package com.potato.robots;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.potato.util.ParsedUrl;
+
+/**
+ * The robots.txt rules that apply to this crawler on one site.
+ * - Allow / Disallow patterns of the selected group, with '*' and a trailing '$'
+ * - any sitemap URLs found
+ *
+ * Patterns are compiled into a RobotsMatcher on first use; the most specific
+ * (longest) matching pattern decides, Allow wins a tie (RFC 9309).
+ */
+public class RobotsRules {
+    private final List<String> allows = new ArrayList<>();
+    private final List<String> disallows = new ArrayList<>();
+    private final List<String> sitemaps = new ArrayList<>();
+
+    // built from allows/disallows when first needed, dropped when a rule is added
+    private volatile RobotsMatcher matcher;
+
+    // rules for a site whose robots.txt could not be reached: nothing but /robots.txt is allowed
+    public static RobotsRules disallowAll() {
+        RobotsRules rules = new RobotsRules();
+        rules.addDisallow("/");
+        return rules;
+    }
+
+    public void addAllow(String path) {
+        allows.add(path);
+        matcher = null;
+    }
+
+    public void addDisallow(String path) {
+        disallows.add(path);
+        matcher = null;
+    }
+
+    // path, optionally with "?query"
+    public boolean isAllowed(String path) {
+        if (path.equals("/robots.txt")) {
+            return true;
+        }
+        return matcher().isAllowed(path.isEmpty() ? "/" : path, 0);
+    }
+
+    // matches the path and query of url in place, without copying them out
+    public boolean isAllowed(ParsedUrl url) {
+        int from = url.pathIndex();
+        if (url.url.startsWith("/robots.txt", from) && url.url.length() == from + 11) {
+            return true;
+        }
+        return matcher().isAllowed(url.url, from);
+    }
+
+    private RobotsMatcher matcher() {
+        RobotsMatcher m = matcher;
+        if (m == null) {
+            m = new RobotsMatcher(allows, disallows);
+            matcher = m;
+        }
+        return m;
+    }
+
+    public void addSitemap(String url) {
+        sitemaps.add(url);
+    }
+
+    public List<String> getSitemaps() {
+        return sitemaps;
+    }
+}
@@ -0,0 +1,232 @@
+package com.potato.scheduler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.potato.util.Hashing;
+
+/**
+ * Per-URL change history for continuous crawling.
+ *
+ * Every visit records whether the page changed since the previous visit
+ * (content hash, or a 304 from a conditional request). From that we
+ * estimate how often the page changes and when to look at it again:
+ *
+ * - pages that were seen to change get the interval 1 / rate, with the rate
+ *   from the Cho & Garcia-Molina estimator for regular visits:
+ *       rate = -ln((n - X + 0.5) / (n + 0.5)) / (elapsed / n)
+ *   (n revisits, X of them found a change)
+ * - pages that never changed so far double their interval on every visit
+ *
+ * Intervals are kept between minMs and maxMs. Old observations are halved
+ * every WINDOW visits so the estimate follows pages whose behavior changes.
+ *
+ * The history is kept in memory and written to <baseDir>/history.tsv by save().
+ */
+public class ChangeHistory {
+
+    // halve the counters after this many revisits
+    private static final int WINDOW = 32;
+
+    private final Path file;
+    private final long initialMs;
+    private final long minMs;
+    private final long maxMs;
+    private final Map<String, Entry> byUrl = new ConcurrentHashMap<>();
+
+    public ChangeHistory(String baseDir, long initialMs, long minMs, long maxMs) throws IOException {
+        Path dir = Paths.get(baseDir);
+        Files.createDirectories(dir);
+        this.file = dir.resolve("history.tsv");
+        this.initialMs = initialMs;
+        this.minMs = minMs;
+        this.maxMs = maxMs;
+        load();
+    }
+
+    /**
+     * Record a visit that returned the page body.
+     *
+     * @return true if the content differs from the previous visit (or it is the first one)
+     */
+    public boolean recordFetch(String url, int depth, long contentHash, long now) {
+        boolean[] changed = new boolean[1];
+        byUrl.compute(url, (u, e) -> {
+            if (e == null) {
+                changed[0] = true;
+                return new Entry(depth, now, contentHash, initialMs);
+            }
+            changed[0] = e.lastHash != contentHash;
+            e.lastHash = contentHash;
+            update(e, changed[0], now);
+            return e;
+        });
+        return changed[0];
+    }
+
+    /**
+     * Record a visit that found the page unchanged without looking at the body (HTTP 304).
+     */
+    public void recordUnchanged(String url, int depth, long now) {
+        byUrl.compute(url, (u, e) -> {
+            if (e == null) {
+                return new Entry(depth, now, 0, initialMs);
+            }
+            update(e, false, now);
+            return e;
+        });
+    }
+
+    // how long to wait before the next visit of url
+    public long nextDelayMs(String url) {
+        Entry e = byUrl.get(url);
+        return (e != null) ? e.intervalMs : initialMs;
+    }
+
+    /**
+     * A due revisit that could not be fetched this time (robots.txt, trap
+     * host): double its interval, up to maxMs, so it is tried again later.
+     *
+     * @return false if url has no history
+     */
+    public boolean postpone(String url) {
+        Entry e = byUrl.get(url);
+        if (e == null) {
+            return false;
+        }
+        synchronized (e) {
+            e.intervalMs = Math.min(maxMs, Math.max(minMs, e.intervalMs * 2));
+        }
+        return true;
+    }
+
+    // stop revisiting url (it is no longer in scope of the crawl)
+    public void remove(String url) {
+        byUrl.remove(url);
+    }
+
+    public boolean contains(String url) {
+        return byUrl.containsKey(url);
+    }
+
+    public int size() {
+        return byUrl.size();
+    }
+
+    /**
+     * Call action(url, depth, dueAtMillis) for every known URL, e.g. to
+     * schedule the revisits of a previous run after a restart.
+     */
+    public void forEachDue(DueConsumer action) {
+        byUrl.forEach((url, e) -> action.accept(url, e.depth, e.lastVisit + e.intervalMs));
+    }
+
+    /**
+     * Write the whole history to disk (tmp file + atomic rename).
+     */
+    public synchronized void save() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> me : byUrl.entrySet()) {
+                Entry e = me.getValue();
+                synchronized (e) {
+                    out.write(me.getKey() + "\t" + e.depth + "\t" + e.firstVisit + "\t" + e.lastVisit
+                            + "\t" + e.lastHash + "\t" + e.revisits + "\t" + e.changes + "\t" + e.intervalMs + "\n");
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 64-bit hash of a page body (FNV-1a over the bytes + fmix64).
+     */
+    public static long contentHash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        return Hashing.fmix64(h ^ bytes.length);
+    }
+
+    // locked so save() never writes a half-updated entry
+    private void update(Entry e, boolean changed, long now) {
+        synchronized (e) {
+            e.revisits++;
+            if (changed) {
+                e.changes++;
+            }
+            e.lastVisit = now;
+
+            if (e.changes == 0) {
+                e.intervalMs = Math.min(maxMs, e.intervalMs * 2);
+            } else {
+                double n = e.revisits;
+                double x = Math.min(e.changes, e.revisits);
+                double meanGapMs = Math.max(1, (now - e.firstVisit) / n);
+                double rate = -Math.log((n - x + 0.5) / (n + 0.5)) / meanGapMs;
+                long interval = (long) (1.0 / rate);
+                e.intervalMs = Math.max(minMs, Math.min(maxMs, interval));
+            }
+
+            if (e.revisits >= WINDOW) {
+                // forget half of the past: keep the ratio, move the window start forward
+                e.revisits /= 2;
+                e.changes /= 2;
+                e.firstVisit = now - (now - e.firstVisit) / 2;
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            String[] p = line.split("\t", -1);
+            if (p.length != 8) {
+                continue;
+            }
+            try {
+                Entry e = new Entry(Integer.parseInt(p[1]), Long.parseLong(p[2]), Long.parseLong(p[4]),
+                        Long.parseLong(p[7]));
+                e.lastVisit = Long.parseLong(p[3]);
+                e.revisits = Integer.parseInt(p[5]);
+                e.changes = Integer.parseInt(p[6]);
+                byUrl.put(p[0], e);
+            } catch (NumberFormatException ignored) {
+                // skip broken lines
+            }
+        }
+    }
+
+    // (url, depth, dueAtMillis)
+    public interface DueConsumer {
+        void accept(String url, int depth, long dueAtMillis);
+    }
+
+    private static class Entry {
+        final int depth;
+        long firstVisit;
+        long lastVisit;
+        long lastHash;
+        int revisits;
+        int changes;
+        long intervalMs;
+
+        Entry(int depth, long firstVisit, long lastHash, long intervalMs) {
+            this.depth = depth;
+            this.firstVisit = firstVisit;
+            this.lastVisit = firstVisit;
+            this.lastHash = lastHash;
+            this.intervalMs = intervalMs;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.potato.scheduler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+import com.potato.scheduler.Frontier.CrawlTask;
+
+/**
+ * FIFO queue of crawl tasks with a bounded in-memory window.
+ *
+ * The oldest tasks live on the heap. Once the window is full, every new
+ * task is appended to a memory-mapped segment file instead, and the oldest
+ * segment is paged back into memory in batches when the window runs dry.
+ * Fully consumed segments are deleted, so disk use follows the queue size.
+ *
+ * Segment record format: [int depth][int length][UTF-8 url bytes].
+ * A depth of -1 marks the end of a segment.
+ *
+ * Thread-safe: every public method synchronizes on the queue.
+ */
+public class DiskSpillQueue implements Closeable {
+
+    private static final int END_OF_SEGMENT = -1;
+
+    private final Path dir;
+    private final String prefix;
+    private final int memoryLimit;
+    private final int segmentBytes;
+
+    private final ArrayDeque<CrawlTask> memory = new ArrayDeque<>();
+    // oldest first; the last one is the segment we are currently appending to
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private long spilled = 0;
+    private int segmentSeq = 0;
+
+    /**
+     * @param dir          where segment files go (null = never spill, keep everything in memory)
+     * @param prefix       file name prefix, must be unique per queue within dir
+     * @param memoryLimit  max tasks kept on the heap
+     * @param segmentBytes size of one segment file
+     */
+    public DiskSpillQueue(Path dir, String prefix, int memoryLimit, int segmentBytes) throws IOException {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.memoryLimit = (dir == null) ? Integer.MAX_VALUE : Math.max(1, memoryLimit);
+        this.segmentBytes = segmentBytes;
+
+        if (dir != null) {
+            Files.createDirectories(dir);
+            // spill files are scratch space, anything left from a previous run is stale
+            try (DirectoryStream<Path> stale = Files.newDirectoryStream(dir, prefix + "-*.seg")) {
+                for (Path p : stale) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the task was dropped because its URL does not fit in a segment
+     */
+    public synchronized boolean add(CrawlTask task) {
+        // once something is on disk, new tasks must queue up behind it
+        if (spilled == 0 && memory.size() < memoryLimit) {
+            memory.add(task);
+            return true;
+        }
+        try {
+            return spill(task);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill frontier to " + dir, e);
+        }
+    }
+
+    public synchronized CrawlTask poll() {
+        if (memory.isEmpty() && spilled > 0) {
+            pageIn();
+        }
+        return memory.poll();
+    }
+
+    public synchronized long size() {
+        return memory.size() + spilled;
+    }
+
+    public synchronized boolean isEmpty() {
+        return memory.isEmpty() && spilled == 0;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment s : segments) {
+            s.delete();
+        }
+        segments.clear();
+        spilled = 0;
+    }
+
+    private boolean spill(CrawlTask task) throws IOException {
+        byte[] url = task.url.getBytes(StandardCharsets.UTF_8);
+        int recordBytes = 8 + url.length;
+        if (recordBytes + 4 > segmentBytes) {
+            // a single URL larger than a segment is not worth crawling
+            return false;
+        }
+
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.writePos + recordBytes + 4 > segmentBytes) {
+            if (tail != null) {
+                tail.seal();
+            }
+            tail = new Segment(dir.resolve(prefix + "-" + (segmentSeq++) + ".seg"), segmentBytes);
+            segments.add(tail);
+        }
+        tail.buf.putInt(tail.writePos, task.depth);
+        tail.buf.putInt(tail.writePos + 4, url.length);
+        tail.buf.put(tail.writePos + 8, url);
+        tail.writePos += recordBytes;
+        spilled++;
+        return true;
+    }
+
+    // move the next batch of spilled tasks (oldest first) back onto the heap
+    private void pageIn() {
+        while (memory.size() < memoryLimit && spilled > 0) {
+            Segment head = segments.peekFirst();
+            if (head == null) {
+                return;
+            }
+            if (head.readPos >= head.writePos) {
+                if (head.sealed) {
+                    segments.pollFirst();
+                    head.delete();
+                    continue;
+                }
+                return;
+            }
+            int depth = head.buf.getInt(head.readPos);
+            int len = head.buf.getInt(head.readPos + 4);
+            byte[] url = new byte[len];
+            head.buf.get(head.readPos + 8, url);
+            head.readPos += 8 + len;
+            spilled--;
+            memory.add(new CrawlTask(new String(url, StandardCharsets.UTF_8), depth));
+        }
+    }
+
+    /**
+     * One append-only, memory-mapped segment file.
+     * The mapping lives off-heap, only the small bookkeeping object is on the heap.
+     */
+    private static class Segment {
+        final Path path;
+        final MappedByteBuffer buf;
+        int writePos = 0;
+        int readPos = 0;
+        boolean sealed = false;
+
+        Segment(Path path, int size) throws IOException {
+            this.path = path;
+            try (FileChannel ch = FileChannel.open(path,
+                    StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                this.buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        void seal() {
+            buf.putInt(writePos, END_OF_SEGMENT);
+            sealed = true;
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -1,89 +1,341 @@
-package com.potato.scheduler;
-
-import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
-
-/**
- * A frontier implementation that keeps URLs in memory (priority queue)
- * but also appends them to a file so the frontier can survive restarts.
- *
- * Format in file: "<depth> <url>"
- */
-public class FileFrontier implements Frontier {
-
-    private final File file;
-    private final BlockingQueue<Prioritized> queue = new PriorityBlockingQueue<>();
-    private final AtomicInteger seq = new AtomicInteger(0);
-    private final BufferedWriter writer;
-
-    public FileFrontier(String path) throws IOException {
-        this.file = new File(path);
-        // load existing
-        if (file.exists()) {
-            try (BufferedReader br = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] parts = line.split(" ", 2);
-                    int depth = Integer.parseInt(parts[0]);
-                    String url = parts[1];
-                    queue.add(new Prioritized(url, depth, seq.getAndIncrement()));
-                }
-            }
-        }
-        this.writer = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8, true));
-    }
-
-    @Override
-    public void add(String url, int depth) {
-        queue.add(new Prioritized(url, depth, seq.getAndIncrement()));
-        try {
-            writer.write(depth + " " + url);
-            writer.newLine();
-            writer.flush();
-        } catch (IOException ignored) {}
-    }
-
-    @Override
-    public CrawlTask poll(long timeoutMs) throws InterruptedException {
-        Prioritized p = queue.poll();
-        if (p == null) return null;
-        return new CrawlTask(p.url, p.depth);
-    }
-
-    @Override
-    public boolean isEmpty() {
-        return queue.isEmpty();
-    }
-
-    @Override
-    public void close() {
-        try {
-            writer.close();
-        } catch (IOException ignored) {}
-    }
-
-    /**
-     * Internal wrapper to sort URLs by depth first, then by insertion order.
-     */
-    private static class Prioritized implements Comparable<Prioritized> {
-        final String url;
-        final int depth;
-        final int seq;
-
-        Prioritized(String url, int depth, int seq) {
-            this.url = url;
-            this.depth = depth;
-            this.seq = seq;
-        }
-
-        @Override
-        public int compareTo(Prioritized other) {
-            int c = Integer.compare(this.depth, other.depth);
-            if (c != 0) return c;
-            return Integer.compare(this.seq, other.seq);
-        }
-    }
-}
+package com.potato.scheduler;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A frontier implementation that keeps URLs in memory (priority queue)
+ * and records every change in a write-ahead journal, so the frontier can
+ * survive restarts and crashes.
+ *
+ * Journal records (one per line):
+ * - "A <depth> <url>"  url was added
+ * - "P <url>"          url was handed out by poll()
+ * - "K <url>"          url was acknowledged, the crawler is done with it
+ * A record only counts once its newline is on disk: a last line without
+ * one was cut off by a crash and is ignored, even if it still parses.
+ *
+ * Appends are group-committed: they are buffered and flushed + fsynced
+ * together every few milliseconds (or once a batch is full) instead of
+ * once per URL. Every checkpointEvery records the outstanding URLs are
+ * written to "<path>.snapshot" and the journal is truncated, so it never
+ * grows forever. Recovery loads the snapshot, replays the short journal
+ * and rebuilds only the URLs that were not acknowledged yet. URLs that
+ * were polled but not acked before a crash are handed out again.
+ *
+ * poll() blocks up to its timeout and is woken up by add(); pollBatch()
+ * takes several URLs under a single lock acquisition.
+ *
+ * Lines in the old "<depth> <url>" format are read as adds.
+ */
+public class FileFrontier implements Frontier {
+
+    private static final long FLUSH_INTERVAL_MS = 50;
+    private static final int FLUSH_BATCH = 1_000;
+    private static final int CHECKPOINT_EVERY = 100_000;
+
+    private final File file;
+    private final int checkpointEvery;
+    private final File snapshot;
+    // everything below is guarded by lock, so queue changes and journal records stay in the same order
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private final PriorityQueue<Prioritized> queue = new PriorityQueue<>();
+    // polled but not yet acked: url -> depth (still outstanding for recovery)
+    private final Map<String, Integer> leased = new HashMap<>();
+    private int seq = 0;
+
+    private FileOutputStream out;
+    private BufferedWriter writer;
+    private int pendingRecords = 0;
+    private int recordsSinceCheckpoint = 0;
+    private IOException failure;
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "frontier-journal");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public FileFrontier(String path) throws IOException {
+        this(path, CHECKPOINT_EVERY);
+    }
+
+    // checkpointEvery: journal records between two snapshots
+    FileFrontier(String path, int checkpointEvery) throws IOException {
+        this.file = new File(path);
+        this.checkpointEvery = Math.max(1, checkpointEvery);
+        this.snapshot = new File(path + ".snapshot");
+
+        // recover: snapshot first, then everything journaled after it
+        Map<String, Integer> outstanding = new LinkedHashMap<>();
+        if (snapshot.exists()) {
+            replay(snapshot, outstanding);
+        }
+        if (file.exists()) {
+            replay(file, outstanding);
+        }
+        lock.lock();
+        try {
+            for (Map.Entry<String, Integer> e : outstanding.entrySet()) {
+                queue.add(new Prioritized(e.getKey(), e.getValue(), seq++));
+            }
+            // start from a compact state: snapshot = outstanding, empty journal
+            checkpoint();
+        } finally {
+            lock.unlock();
+        }
+        flusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void add(String url, int depth) {
+        lock.lock();
+        try {
+            checkFailure();
+            queue.add(new Prioritized(url, depth, seq++));
+            append("A " + depth + " " + url);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public CrawlTask poll(long timeoutMs) throws InterruptedException {
+        List<CrawlTask> batch = pollBatch(1, timeoutMs);
+        return batch.isEmpty() ? null : batch.get(0);
+    }
+
+    @Override
+    public List<CrawlTask> pollBatch(int max, long timeoutMs) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (queue.isEmpty()) {
+                if (nanos <= 0) {
+                    return List.of();
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            checkFailure();
+
+            List<CrawlTask> batch = new ArrayList<>(Math.min(max, queue.size()));
+            while (batch.size() < max && !queue.isEmpty()) {
+                Prioritized p = queue.poll();
+                leased.put(p.url, p.depth);
+                append("P " + p.url);
+                batch.add(new CrawlTask(p.url, p.depth));
+            }
+            if (!queue.isEmpty()) {
+                // there is more, let the next waiting worker have a go
+                notEmpty.signal();
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void ack(CrawlTask task) {
+        lock.lock();
+        try {
+            checkFailure();
+            if (leased.remove(task.url) != null) {
+                append("K " + task.url);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return queue.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        lock.lock();
+        try {
+            flush();
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close frontier journal " + file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // read a snapshot or journal file into the outstanding map
+    private static void replay(File source, Map<String, Integer> outstanding) throws IOException {
+        // without its newline the last record may be cut short, e.g. "A 0 http://example.com/pa"
+        boolean complete = endsWithNewline(source);
+        try (BufferedReader br = new BufferedReader(new FileReader(source, StandardCharsets.UTF_8))) {
+            String line = br.readLine();
+            while (line != null) {
+                String next = br.readLine();
+                if (next != null || complete) {
+                    apply(line, outstanding);
+                }
+                line = next;
+            }
+        }
+    }
+
+    private static void apply(String line, Map<String, Integer> outstanding) {
+        if (line.isEmpty()) return;
+        String[] parts = line.split(" ", 3);
+        try {
+            switch (parts[0]) {
+                case "A" -> outstanding.put(parts[2], Integer.parseInt(parts[1]));
+                case "K" -> outstanding.remove(parts[1]);
+                case "P" -> {
+                    // a lease alone does not finish a URL
+                }
+                default -> outstanding.put(line.split(" ", 2)[1], Integer.parseInt(parts[0]));
+            }
+        } catch (RuntimeException garbage) {
+            // e.g. a block of zeros the file system left after a crash, skip it
+        }
+    }
+
+    private static boolean endsWithNewline(File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            long len = raf.length();
+            if (len == 0) return true;
+            raf.seek(len - 1);
+            return raf.read() == '\n';
+        }
+    }
+
+    // caller holds lock
+    private void append(String record) {
+        try {
+            writer.write(record);
+            writer.newLine();
+            pendingRecords++;
+            recordsSinceCheckpoint++;
+            if (recordsSinceCheckpoint >= checkpointEvery) {
+                checkpoint();
+            } else if (pendingRecords >= FLUSH_BATCH) {
+                flush();
+            }
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException("Failed to append to frontier journal " + file, e);
+        }
+    }
+
+    // caller holds lock: group commit of everything appended so far
+    private void flush() throws IOException {
+        if (pendingRecords == 0) return;
+        writer.flush();
+        out.getChannel().force(false);
+        pendingRecords = 0;
+    }
+
+    private void flushQuietly() {
+        lock.lock();
+        try {
+            if (failure != null) return;
+            flush();
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write all outstanding URLs (queued + leased) to the snapshot and start
+     * a fresh journal. Caller holds lock.
+     */
+    private void checkpoint() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+
+        Path tmp = new File(snapshot.getPath() + ".tmp").toPath();
+        try (FileOutputStream snapOut = new FileOutputStream(tmp.toFile());
+             BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(snapOut, StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Integer> e : leased.entrySet()) {
+                bw.write("A " + e.getValue() + " " + e.getKey());
+                bw.newLine();
+            }
+            // heap iteration order is arbitrary, sort so recovery keeps the FIFO order
+            Prioritized[] queued = queue.toArray(new Prioritized[0]);
+            Arrays.sort(queued);
+            for (Prioritized p : queued) {
+                bw.write("A " + p.depth + " " + p.url);
+                bw.newLine();
+            }
+            bw.flush();
+            snapOut.getChannel().force(true);
+        }
+        Files.move(tmp, snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // the snapshot now covers everything, so the journal can start empty
+        this.out = new FileOutputStream(file, false);
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        try (FileChannel ch = FileChannel.open(file.toPath().toAbsolutePath().getParent())) {
+            ch.force(true);
+        } catch (IOException ignored) {
+            // not every platform can fsync a directory
+        }
+        pendingRecords = 0;
+        recordsSinceCheckpoint = 0;
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("Frontier journal " + file + " is broken", failure);
+        }
+    }
+
+    /**
+     * Internal wrapper to sort URLs by depth first, then by insertion order.
+     */
+    private static class Prioritized implements Comparable<Prioritized> {
+        final String url;
+        final int depth;
+        final int seq;
+
+        Prioritized(String url, int depth, int seq) {
+            this.url = url;
+            this.depth = depth;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Prioritized other) {
+            int c = Integer.compare(this.depth, other.depth);
+            if (c != 0) return c;
+            return Integer.compare(this.seq, other.seq);
+        }
+    }
+}
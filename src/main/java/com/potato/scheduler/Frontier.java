@@ -1,25 +1,81 @@
-package com.potato.scheduler;
-
-/**
- * Frontier abstraction: represents "the place where new URLs to crawl are stored".
- * Different implementations can be in-memory, file-backed, DB-backed, etc.
- *
- * Extends AutoCloseable so implementations can flush/close resources.
- */
-public interface Frontier extends AutoCloseable {
-    void add(String url, int depth);
-    CrawlTask poll(long timeoutMs) throws InterruptedException;
-    boolean isEmpty();
-    @Override
-    void close();
-
-    class CrawlTask {
-        public final String url;
-        public final int depth;
-
-        public CrawlTask(String url, int depth) {
-            this.url = url;
-            this.depth = depth;
-        }
-    }
-}
+package com.potato.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.potato.util.ParsedUrl;
+
+/**
+ * Frontier abstraction: represents "the place where new URLs to crawl are stored".
+ * Different implementations can be in-memory, file-backed, DB-backed, etc.
+ *
+ * Extends AutoCloseable so implementations can flush/close resources.
+ */
+public interface Frontier extends AutoCloseable {
+    void add(String url, int depth);
+
+    /**
+     * Add a URL with the lowest priority, e.g. a link into a suspected crawler
+     * trap. By default this is the same as add().
+     */
+    default void addDemoted(String url, int depth) {
+        add(url, depth);
+    }
+
+    CrawlTask poll(long timeoutMs) throws InterruptedException;
+
+    /**
+     * Take up to max tasks at once, waiting up to timeoutMs for the first one.
+     * Implementations can override this to hand out the whole batch under one lock.
+     *
+     * @return the tasks taken, empty if nothing arrived in time
+     */
+    default List<CrawlTask> pollBatch(int max, long timeoutMs) throws InterruptedException {
+        List<CrawlTask> batch = new ArrayList<>();
+        CrawlTask first = poll(timeoutMs);
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+        CrawlTask next;
+        while (batch.size() < max && (next = poll(0)) != null) {
+            batch.add(next);
+        }
+        return batch;
+    }
+
+    /**
+     * Tell the frontier we are done with a task returned by poll().
+     * Durable frontiers use this to forget the URL; by default it is a no-op.
+     */
+    default void ack(CrawlTask task) {
+    }
+
+    boolean isEmpty();
+    @Override
+    void close();
+
+    class CrawlTask {
+        public final String url;
+        public final int depth;
+        // parsed on first use, then shared by the frontier and the worker
+        private ParsedUrl parsed;
+
+        public CrawlTask(String url, int depth) {
+            this.url = url;
+            this.depth = depth;
+        }
+
+        /**
+         * The parsed and normalized URL, or null if url is not a usable http(s) URL.
+         */
+        public ParsedUrl parsedUrl() {
+            ParsedUrl p = parsed;
+            if (p == null) {
+                p = ParsedUrl.parse(url);
+                parsed = p;
+            }
+            return p;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.potato.scheduler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.potato.util.HostRateLimiter;
+import com.potato.util.ParsedUrl;
+
+/**
+ * Mercator-style frontier.
+ *
+ * - front queues: one FIFO per priority level (lower depth = higher priority)
+ * - back queues: one FIFO per host, at most maxActiveHosts of them at once
+ * - a heap of hosts ordered by the time they may be fetched again
+ *   (both handled by PolitenessScheduler)
+ *
+ * New URLs land in the front queues. Whenever fewer than maxActiveHosts hosts
+ * have a back queue, URLs are moved from the front queues (highest priority
+ * first) into the back queues until a new host shows up. poll() only returns
+ * URLs whose host is ready, so workers never sleep on a host, and one huge
+ * site only ever occupies a single back queue instead of the whole frontier.
+ *
+ * Each back queue keeps at most memoryEntries / maxActiveHosts URLs of its
+ * host in the scheduler; the rest of that host waits in a per-host overflow
+ * queue and moves up as the host is fetched. So a host with millions of
+ * queued URLs still takes one back queue slot and one share of the memory
+ * budget, and the front queues keep flowing to the other hosts.
+ *
+ * With a spill directory, heap use is bounded: each front queue and each
+ * overflow queue keeps a fixed window in memory and spills the rest to disk
+ * (DiskSpillQueue), and the back queues together never hold more than
+ * memoryEntries URLs.
+ */
+public class HostPartitionedFrontier implements Frontier {
+
+    // default size of one spill segment file
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private final List<DiskSpillQueue> frontQueues = new ArrayList<>();
+    private final PolitenessScheduler<CrawlTask> backQueues;
+    private final int maxActiveHosts;
+    // URLs of one host held by the back queues, the rest goes to its overflow
+    private final int perHostEntries;
+    private final Path spillDir;
+    private final int overflowSegmentBytes;
+
+    // hosts with a back queue; only changed under refillLock
+    private final Map<String, ActiveHost> activeHosts = new ConcurrentHashMap<>();
+    private int overflowSeq = 0;
+
+    // URLs still waiting in the front queues, and in the overflow queues
+    private final AtomicInteger frontSize = new AtomicInteger(0);
+    private final AtomicLong overflowSize = new AtomicLong(0);
+    private final Object refillLock = new Object();
+
+    /**
+     * Fully in-memory frontier.
+     *
+     * @param limiter        per-host politeness delay
+     * @param priorityLevels number of front queues; depths beyond the last level share it
+     * @param maxActiveHosts number of back queues (Mercator suggests ~3x the number of workers)
+     */
+    public HostPartitionedFrontier(HostRateLimiter limiter, int priorityLevels, int maxActiveHosts) {
+        this(limiter, priorityLevels, maxActiveHosts, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Frontier with bounded heap use.
+     *
+     * @param spillDir      directory for spill segments (null = keep everything in memory)
+     * @param memoryEntries max URLs kept on the heap by the front queues, and again by the back queues;
+     *                      one host gets at most memoryEntries / maxActiveHosts of the latter
+     */
+    public HostPartitionedFrontier(HostRateLimiter limiter,
+                                   int priorityLevels,
+                                   int maxActiveHosts,
+                                   Path spillDir,
+                                   int memoryEntries) {
+        this(limiter, priorityLevels, maxActiveHosts, spillDir, memoryEntries, SEGMENT_BYTES);
+    }
+
+    // segmentBytes: size of one spill segment file
+    HostPartitionedFrontier(HostRateLimiter limiter,
+                            int priorityLevels,
+                            int maxActiveHosts,
+                            Path spillDir,
+                            int memoryEntries,
+                            int segmentBytes) {
+        int levels = Math.max(1, priorityLevels);
+        int perLevel = Math.max(1, memoryEntries / levels);
+        try {
+            for (int i = 0; i < levels; i++) {
+                frontQueues.add(new DiskSpillQueue(spillDir, "front-" + i, perLevel, segmentBytes));
+            }
+            if (spillDir != null) {
+                // overflow queues of a previous run
+                try (DirectoryStream<Path> stale = Files.newDirectoryStream(spillDir, "back-*.seg")) {
+                    for (Path p : stale) {
+                        Files.deleteIfExists(p);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to initialize frontier spill directory " + spillDir, e);
+        }
+        this.backQueues = new PolitenessScheduler<>(limiter, null);
+        this.maxActiveHosts = Math.max(1, maxActiveHosts);
+        this.perHostEntries = Math.max(1, memoryEntries / this.maxActiveHosts);
+        this.spillDir = spillDir;
+        // there is one overflow per active host, keep their segments small
+        this.overflowSegmentBytes = Math.max(1024, segmentBytes / 16);
+    }
+
+    @Override
+    public void add(String url, int depth) {
+        int level = Math.min(Math.max(0, depth), frontQueues.size() - 1);
+        enqueueFront(frontQueues.get(level), new CrawlTask(url, depth));
+    }
+
+    // straight into the last front queue, behind every normal URL
+    @Override
+    public void addDemoted(String url, int depth) {
+        enqueueFront(frontQueues.get(frontQueues.size() - 1), new CrawlTask(url, depth));
+    }
+
+    @Override
+    public CrawlTask poll(long timeoutMs) throws InterruptedException {
+        refill();
+        CrawlTask task = backQueues.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        if (task != null) {
+            taken(task.parsedUrl().host);
+            // this may have emptied a back queue, so make room for a new host
+            refill();
+        }
+        return task;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return frontSize.get() == 0 && overflowSize.get() == 0 && backQueues.isEmpty();
+    }
+
+    public long size() {
+        return frontSize.get() + overflowSize.get() + backQueues.size();
+    }
+
+    @Override
+    public void close() {
+        for (DiskSpillQueue q : frontQueues) {
+            q.close();
+        }
+        synchronized (refillLock) {
+            for (ActiveHost h : activeHosts.values()) {
+                if (h.overflow != null) {
+                    h.overflow.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Move URLs from the front queues to their hosts until every back queue
+     * slot is used by a host or the front queues are empty.
+     */
+    private void refill() {
+        if (frontSize.get() == 0 || activeHosts.size() >= maxActiveHosts) {
+            return;
+        }
+        synchronized (refillLock) {
+            while (activeHosts.size() < maxActiveHosts) {
+                CrawlTask task = pollFront();
+                if (task == null) {
+                    return;
+                }
+                ParsedUrl url = task.parsedUrl();
+                if (url != null) {
+                    admit(url.host, task);
+                }
+                // only count it as gone once it is visible in the back or overflow queues
+                frontSize.decrementAndGet();
+            }
+        }
+    }
+
+    // into the host's back queue if it has room and nothing is waiting before it, else into its overflow
+    private void admit(String host, CrawlTask task) {
+        ActiveHost h = activeHosts.computeIfAbsent(host, k -> new ActiveHost());
+        if (h.overflow == null && h.inBack < perHostEntries) {
+            h.inBack++;
+            backQueues.add(host, task);
+            return;
+        }
+        if (h.overflow == null) {
+            h.overflow = newOverflow();
+        }
+        if (h.overflow.add(task)) {
+            overflowSize.incrementAndGet();
+        }
+    }
+
+    // a URL of host left the back queues: move up the next one from its overflow
+    private void taken(String host) {
+        synchronized (refillLock) {
+            ActiveHost h = activeHosts.get(host);
+            if (h == null) {
+                return;
+            }
+            h.inBack--;
+            while (h.overflow != null && h.inBack < perHostEntries) {
+                CrawlTask next = h.overflow.poll();
+                if (next == null) {
+                    h.overflow.close();
+                    h.overflow = null;
+                    break;
+                }
+                h.inBack++;
+                backQueues.add(host, next);
+                overflowSize.decrementAndGet();
+            }
+            if (h.inBack == 0 && h.overflow == null) {
+                activeHosts.remove(host);
+            }
+        }
+    }
+
+    private DiskSpillQueue newOverflow() {
+        try {
+            // one URL on the heap, the rest in the spill directory (if any)
+            return new DiskSpillQueue(spillDir, "back-" + (overflowSeq++), 1, overflowSegmentBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create frontier overflow in " + spillDir, e);
+        }
+    }
+
+    private void enqueueFront(DiskSpillQueue queue, CrawlTask task) {
+        // count it first, so a concurrent refill never takes frontSize below zero
+        frontSize.incrementAndGet();
+        if (!queue.add(task)) {
+            frontSize.decrementAndGet();
+            return;
+        }
+        refill();
+    }
+
+    // take the next URL from the highest-priority non-empty front queue
+    private CrawlTask pollFront() {
+        for (DiskSpillQueue q : frontQueues) {
+            CrawlTask task = q.poll();
+            if (task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    // a host with a back queue; guarded by refillLock
+    private static final class ActiveHost {
+        // URLs of the host in backQueues, including ones just handed out by poll()
+        int inBack;
+        // URLs waiting for room in the back queue, oldest first (null = none)
+        DiskSpillQueue overflow;
+    }
+}
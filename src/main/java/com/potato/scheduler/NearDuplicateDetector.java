@@ -0,0 +1,389 @@
+package com.potato.scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.potato.util.Hashing;
+import com.potato.util.SimHash;
+
+/**
+ * Finds near-duplicate pages per host and flags hosts that look like
+ * crawler traps (calendars, faceted search, looping pagination).
+ *
+ * Each host keeps its own index of SimHash fingerprints. Lookups use the
+ * block trick from Manku et al.: the 64 bits are cut into maxDistance + 1
+ * blocks, and two fingerprints at most maxDistance bits apart must agree
+ * exactly on at least one block. So we only compare against fingerprints
+ * that share a block value instead of scanning all of them.
+ *
+ * A page is indexed once per URL: when a changed page is fetched again its
+ * previous fingerprint is replaced, so a page never matches itself and the
+ * verdict of a host recovers once its pages stop looking alike.
+ *
+ * Once a host has at least minPages pages, its share of near-duplicates
+ * decides what happens to new links to that host: DEMOTE (lowest frontier
+ * priority) or DROP.
+ *
+ * Memory is bounded: a host keeps its newest MAX_PER_HOST pages, and beyond
+ * maxFingerprints over all hosts the least recently crawled hosts are
+ * forgotten (their verdict starts over at OK).
+ */
+public class NearDuplicateDetector {
+
+    public enum Verdict {
+        OK,
+        DEMOTE,
+        DROP
+    }
+
+    // fingerprints kept per host; beyond that the oldest ones are forgotten
+    private static final int MAX_PER_HOST = 50_000;
+    private static final int MIN_SLOTS = 16;
+
+    private final int maxDistance;
+    private final int minPages;
+    private final double demoteRatio;
+    private final double dropRatio;
+    private final long maxFingerprints;
+    private final int maxPerHost;
+    private final Map<String, HostIndex> hosts = new ConcurrentHashMap<>();
+
+    // fingerprint slots allocated over all hosts
+    private final AtomicLong slots = new AtomicLong();
+    // orders hosts by last use
+    private final AtomicLong clock = new AtomicLong();
+    private final Object evictLock = new Object();
+
+    public NearDuplicateDetector(int maxDistance, int minPages, double demoteRatio, double dropRatio) {
+        this(maxDistance, minPages, demoteRatio, dropRatio, 2_000_000);
+    }
+
+    /**
+     * @param maxDistance     max differing bits for two pages to count as near-duplicates
+     * @param minPages        pages a host needs before it can be demoted or dropped
+     * @param demoteRatio     near-duplicate share at which a host's links are demoted
+     * @param dropRatio       near-duplicate share at which a host's links are dropped
+     * @param maxFingerprints fingerprints kept over all hosts
+     */
+    public NearDuplicateDetector(int maxDistance, int minPages, double demoteRatio, double dropRatio,
+                                 long maxFingerprints) {
+        this.maxDistance = Math.max(0, Math.min(15, maxDistance));
+        this.minPages = Math.max(1, minPages);
+        this.demoteRatio = demoteRatio;
+        this.dropRatio = dropRatio;
+        this.maxFingerprints = Math.max(MIN_SLOTS, maxFingerprints);
+        this.maxPerHost = (int) Math.max(MIN_SLOTS, Math.min(MAX_PER_HOST, this.maxFingerprints / 2));
+    }
+
+    /**
+     * Add the fingerprint of url to its host's index, replacing the one
+     * stored for url before.
+     *
+     * @return true if another page of the host is within maxDistance bits
+     */
+    public boolean add(String host, String url, long fingerprint) {
+        long urlKey = Hashing.murmur64(url);
+        while (true) {
+            HostIndex index = hosts.computeIfAbsent(host, h -> new HostIndex(h, maxDistance + 1, maxPerHost));
+            boolean near;
+            int grown;
+            synchronized (index) {
+                if (index.evicted) {
+                    continue;
+                }
+                index.lastUsed = clock.incrementAndGet();
+                near = index.add(urlKey, fingerprint, maxDistance);
+                grown = index.capacity() - index.accounted;
+                index.accounted = index.capacity();
+            }
+            if (grown != 0 && slots.addAndGet(grown) > maxFingerprints) {
+                evict();
+            }
+            return near;
+        }
+    }
+
+    // what to do with a new link to host
+    public Verdict verdict(String host) {
+        HostIndex index = (host != null) ? hosts.get(host) : null;
+        if (index == null) {
+            return Verdict.OK;
+        }
+        return index.verdict(minPages, demoteRatio, dropRatio);
+    }
+
+    // hosts currently indexed
+    public int hosts() {
+        return hosts.size();
+    }
+
+    // fingerprint slots allocated over all hosts
+    public long fingerprints() {
+        return slots.get();
+    }
+
+    // forget least recently used hosts until we are 10% below the budget
+    private void evict() {
+        synchronized (evictLock) {
+            if (slots.get() <= maxFingerprints) {
+                return;
+            }
+            List<HostIndex> byAge = new ArrayList<>(hosts.size());
+            for (HostIndex index : hosts.values()) {
+                index.sortKey = index.lastUsed;
+                byAge.add(index);
+            }
+            byAge.sort(Comparator.comparingLong(h -> h.sortKey));
+
+            long target = maxFingerprints - maxFingerprints / 10;
+            for (HostIndex index : byAge) {
+                if (slots.get() <= target) {
+                    break;
+                }
+                synchronized (index) {
+                    index.evicted = true;
+                    slots.addAndGet(-index.accounted);
+                }
+                hosts.remove(index.host, index);
+            }
+        }
+    }
+
+    /**
+     * Fingerprints of one host in flat arrays, one slot per page version in
+     * the order they were added. A replaced or forgotten version is marked
+     * RETIRED and skipped; once the arrays are full they grow, or (at
+     * maxSlots) retired slots and the oldest pages are dropped and the
+     * lookup tables are rebuilt.
+     */
+    private static final class HostIndex {
+        private static final byte RETIRED = 0;
+        private static final byte UNIQUE = 1;
+        private static final byte NEAR = 2;
+
+        final String host;
+        private final int blocks;
+        private final int blockBits;
+        private final int maxSlots;
+
+        volatile long lastUsed;
+        // snapshot of lastUsed to sort by, only used under evictLock
+        long sortKey;
+        // guarded by this: forgotten by evict(), and the capacity counted in slots
+        boolean evicted;
+        int accounted;
+
+        private long[] fps;
+        private long[] urlKeys;
+        private byte[] state;
+        // per block: slot -> next slot with the same block value, or -1
+        private int[][] next;
+        // per block: block value -> newest slot with that value
+        private LongIntMap[] heads;
+        private LongIntMap slotByUrl;
+
+        // slots filled so far
+        private int used = 0;
+        // pages (not retired slots) and the near-duplicates among them
+        private int pages = 0;
+        private int nearDuplicates = 0;
+
+        HostIndex(String host, int blocks, int maxSlots) {
+            this.host = host;
+            this.blocks = blocks;
+            this.blockBits = (64 + blocks - 1) / blocks;
+            this.maxSlots = maxSlots;
+            allocate(Math.min(MIN_SLOTS, maxSlots));
+        }
+
+        int capacity() {
+            return fps.length;
+        }
+
+        boolean add(long urlKey, long fp, int maxDistance) {
+            int previous = slotByUrl.get(urlKey);
+            if (previous >= 0) {
+                retire(previous);
+            }
+            boolean near = hasNear(fp, maxDistance);
+            if (used == fps.length) {
+                makeRoom();
+            }
+            put(urlKey, fp, near ? NEAR : UNIQUE);
+            return near;
+        }
+
+        synchronized Verdict verdict(int minPages, double demoteRatio, double dropRatio) {
+            if (pages < minPages) {
+                return Verdict.OK;
+            }
+            double ratio = (double) nearDuplicates / pages;
+            if (ratio >= dropRatio) {
+                return Verdict.DROP;
+            }
+            if (ratio >= demoteRatio) {
+                return Verdict.DEMOTE;
+            }
+            return Verdict.OK;
+        }
+
+        private boolean hasNear(long fp, int maxDistance) {
+            for (int i = 0; i < blocks; i++) {
+                for (int s = heads[i].get(block(fp, i)); s >= 0; s = next[i][s]) {
+                    if (state[s] != RETIRED && SimHash.distance(fp, fps[s]) <= maxDistance) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void put(long urlKey, long fp, byte st) {
+            int s = used++;
+            fps[s] = fp;
+            urlKeys[s] = urlKey;
+            state[s] = st;
+            pages++;
+            if (st == NEAR) {
+                nearDuplicates++;
+            }
+            slotByUrl.put(urlKey, s);
+            for (int i = 0; i < blocks; i++) {
+                long b = block(fp, i);
+                next[i][s] = heads[i].get(b);
+                heads[i].put(b, s);
+            }
+        }
+
+        private void retire(int s) {
+            if (state[s] == RETIRED) {
+                return;
+            }
+            if (state[s] == NEAR) {
+                nearDuplicates--;
+            }
+            pages--;
+            state[s] = RETIRED;
+        }
+
+        // grow while most slots hold pages, otherwise compact (at the cap: forget the oldest pages)
+        private void makeRoom() {
+            int cap = fps.length;
+            if (pages >= cap / 2 && cap < maxSlots) {
+                rebuild(Math.min(maxSlots, cap * 2), 0);
+            } else {
+                rebuild(cap, Math.max(0, pages - cap * 3 / 4));
+            }
+        }
+
+        private void rebuild(int cap, int forget) {
+            long[] oldFps = fps;
+            long[] oldUrls = urlKeys;
+            byte[] oldState = state;
+            int oldUsed = used;
+            allocate(cap);
+            pages = 0;
+            nearDuplicates = 0;
+            for (int s = 0; s < oldUsed; s++) {
+                if (oldState[s] == RETIRED) {
+                    continue;
+                }
+                if (forget > 0) {
+                    forget--;
+                    continue;
+                }
+                put(oldUrls[s], oldFps[s], oldState[s]);
+            }
+        }
+
+        private void allocate(int cap) {
+            fps = new long[cap];
+            urlKeys = new long[cap];
+            state = new byte[cap];
+            next = new int[blocks][cap];
+            heads = new LongIntMap[blocks];
+            for (int i = 0; i < blocks; i++) {
+                heads[i] = new LongIntMap(cap);
+            }
+            slotByUrl = new LongIntMap(cap);
+            used = 0;
+        }
+
+        private long block(long fp, int i) {
+            int shift = i * blockBits;
+            int bits = Math.min(blockBits, 64 - shift);
+            long mask = (bits == 64) ? -1L : (1L << bits) - 1;
+            return (fp >>> shift) & mask;
+        }
+    }
+
+    // open-addressing long -> slot map; no removal, the host index is rebuilt instead
+    private static final class LongIntMap {
+        private long[] keys;
+        private int[] values;
+        private int size = 0;
+
+        LongIntMap(int expected) {
+            int cap = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+            keys = new long[cap];
+            values = new int[cap];
+            Arrays.fill(values, -1);
+        }
+
+        // -1 if absent
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (values[i] < 0) {
+                    return -1;
+                }
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+        }
+
+        void put(long key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (values[i] < 0) {
+                    keys[i] = key;
+                    values[i] = value;
+                    size++;
+                    return;
+                }
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            Arrays.fill(values, -1);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] >= 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.potato.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.potato.util.HostRateLimiter;
+
+/**
+ * Per-host politeness scheduler.
+ *
+ * Every host gets its own small queue of pending items. Hosts that have
+ * work are kept in a heap ordered by the time they are next allowed to be
+ * fetched. poll() only ever returns an item whose host is ready right now,
+ * so workers never have to sleep on a host - they simply get work for
+ * another host, or wait until the earliest host becomes ready.
+ *
+ * Each host queue has its own monitor, so two threads only contend when
+ * they touch the same host.
+ *
+ * @param <T> item type (e.g. a URL with its depth)
+ */
+public class PolitenessScheduler<T> {
+
+    private final HostRateLimiter limiter;
+    private final Comparator<? super T> order;
+
+    private final ConcurrentHashMap<String, HostQueue<T>> hosts = new ConcurrentHashMap<>();
+    // hosts with pending items, ordered by the time they become ready
+    private final DelayQueue<HostQueue<T>> ready = new DelayQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * @param limiter decides when a host may be fetched again
+     * @param order   order of items within one host (null = FIFO)
+     */
+    public PolitenessScheduler(HostRateLimiter limiter, Comparator<? super T> order) {
+        this.limiter = limiter;
+        this.order = order;
+    }
+
+    public void add(String host, T item) {
+        while (true) {
+            HostQueue<T> q = hosts.computeIfAbsent(host, h -> new HostQueue<>(h, order));
+            synchronized (q) {
+                if (q.removed) {
+                    // lost a race with poll() dropping the empty queue, try again
+                    continue;
+                }
+                q.items.add(item);
+                size.incrementAndGet();
+                if (!q.scheduled) {
+                    q.scheduled = true;
+                    q.readyAt = System.currentTimeMillis() + limiter.delayFor(host);
+                    ready.add(q);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take an item whose host is ready now, waiting up to the given timeout
+     * for one to become ready.
+     *
+     * @return the item, or null if nothing became ready in time
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            HostQueue<T> q = ready.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (q == null) {
+                return null;
+            }
+            synchronized (q) {
+                // someone else may have used this host in the meantime
+                long wait = limiter.tryAcquire(q.host);
+                if (wait > 0) {
+                    q.readyAt = System.currentTimeMillis() + wait;
+                    ready.add(q);
+                    continue;
+                }
+
+                T item = q.items.poll();
+                if (item != null) {
+                    size.decrementAndGet();
+                }
+                if (q.items.isEmpty()) {
+                    q.scheduled = false;
+                    q.removed = true;
+                    hosts.remove(q.host, q);
+                } else {
+                    q.readyAt = System.currentTimeMillis() + limiter.getDelayMs();
+                    ready.add(q);
+                }
+                if (item != null) {
+                    return item;
+                }
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    // number of hosts that currently have pending items
+    public int hostCount() {
+        return hosts.size();
+    }
+
+    /**
+     * Pending items of one host plus the time it may be fetched again.
+     * readyAt is only changed while the queue is not inside the heap.
+     */
+    private static class HostQueue<T> implements Delayed {
+        final String host;
+        final Queue<T> items;
+        long readyAt;
+        boolean scheduled;
+        boolean removed;
+
+        HostQueue(String host, Comparator<? super T> order) {
+            this.host = host;
+            this.items = (order == null) ? new ArrayDeque<>() : new PriorityQueue<>(order);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(readyAt, ((HostQueue<?>) other).readyAt);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.potato.scheduler;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frontier for continuous crawling.
+ *
+ * Wraps another frontier (which keeps doing politeness and depth priority)
+ * and adds a time-ordered queue of revisits. A revisit waits in a DelayQueue
+ * until its due time and is then handed to the inner frontier like a newly
+ * found URL. While revisits are pending the frontier is never empty, so the
+ * crawl keeps running as a long-lived service.
+ *
+ * URLs that came back through a revisit can be recognized with claimRevisit(),
+ * so the crawler lets them past its "fetched once" check exactly once per revisit.
+ */
+public class RevisitFrontier implements Frontier {
+
+    private final Frontier inner;
+    private final DelayQueue<Revisit> scheduled = new DelayQueue<>();
+    // revisits moved into the inner frontier but not claimed by a worker yet
+    private final Set<String> due = ConcurrentHashMap.newKeySet();
+
+    public RevisitFrontier(Frontier inner) {
+        this.inner = inner;
+    }
+
+    @Override
+    public void add(String url, int depth) {
+        inner.add(url, depth);
+    }
+
+    @Override
+    public void addDemoted(String url, int depth) {
+        inner.addDemoted(url, depth);
+    }
+
+    /**
+     * Crawl url again at dueAtMillis (wall clock).
+     */
+    public void scheduleRevisit(String url, int depth, long dueAtMillis) {
+        scheduled.add(new Revisit(url, depth, dueAtMillis));
+    }
+
+    /**
+     * True once for a URL that was handed out because its revisit was due.
+     */
+    public boolean claimRevisit(String url) {
+        return due.remove(url);
+    }
+
+    @Override
+    public CrawlTask poll(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            promoteDue();
+            long remaining = deadline - System.currentTimeMillis();
+            CrawlTask task = inner.poll(Math.max(0, Math.min(remaining, untilNextDue())));
+            if (task != null || remaining <= 0) {
+                return task;
+            }
+        }
+    }
+
+    @Override
+    public List<CrawlTask> pollBatch(int max, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            promoteDue();
+            long remaining = deadline - System.currentTimeMillis();
+            List<CrawlTask> batch = inner.pollBatch(max, Math.max(0, Math.min(remaining, untilNextDue())));
+            if (!batch.isEmpty() || remaining <= 0) {
+                return batch;
+            }
+        }
+    }
+
+    @Override
+    public void ack(CrawlTask task) {
+        inner.ack(task);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return scheduled.isEmpty() && inner.isEmpty();
+    }
+
+    // number of revisits still waiting for their due time
+    public int scheduledCount() {
+        return scheduled.size();
+    }
+
+    @Override
+    public void close() {
+        inner.close();
+    }
+
+    // move every revisit whose time has come into the inner frontier
+    private void promoteDue() {
+        Revisit r;
+        while ((r = scheduled.poll()) != null) {
+            due.add(r.url);
+            inner.add(r.url, r.depth);
+        }
+    }
+
+    private long untilNextDue() {
+        Revisit next = scheduled.peek();
+        return (next == null) ? Long.MAX_VALUE : next.getDelay(TimeUnit.MILLISECONDS);
+    }
+
+    private static class Revisit implements Delayed {
+        final String url;
+        final int depth;
+        final long dueAtMillis;
+
+        Revisit(String url, int depth, long dueAtMillis) {
+            this.url = url;
+            this.depth = depth;
+            this.dueAtMillis = dueAtMillis;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAtMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(dueAtMillis, ((Revisit) o).dueAtMillis);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.potato.storage;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.potato.util.Hashing;
+
+/**
+ * Remembers which URL a page body is stored under, keyed by a digest of the
+ * fetched bytes. Used to store exact duplicates only once.
+ *
+ * A URL owns at most one digest, the one of the body stored for it last.
+ * When its body changes the old digest is released, so later copies of the
+ * old body are stored again instead of pointing at a page that now holds
+ * something else.
+ *
+ * Like ValidatorStore, the data is kept in memory and appended to a file
+ * next to the pages (<digest> TAB <url>, an empty url releases the digest),
+ * which is replayed at startup.
+ */
+public class ContentDigestStore implements AutoCloseable {
+
+    private final Path file;
+    private final Map<String, String> urlByDigest = new ConcurrentHashMap<>();
+    // owner URL -> the digest it owns
+    private final Map<String, String> digestByUrl = new ConcurrentHashMap<>();
+    private final BufferedWriter writer;
+
+    public ContentDigestStore(String baseDir) throws IOException {
+        Path dir = Paths.get(baseDir);
+        Files.createDirectories(dir);
+        this.file = dir.resolve("digests.tsv");
+
+        if (Files.exists(file)) {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                int tab = line.indexOf('\t');
+                if (tab <= 0) {
+                    continue;
+                }
+                String digest = line.substring(0, tab);
+                String url = line.substring(tab + 1);
+                if (url.isEmpty()) {
+                    String owner = urlByDigest.remove(digest);
+                    if (owner != null) {
+                        digestByUrl.remove(owner, digest);
+                    }
+                } else {
+                    apply(digest, url);
+                }
+            }
+        }
+
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * The URL a body with this digest is stored under, or null if none.
+     */
+    public String ownerOf(String digest) {
+        return urlByDigest.get(digest);
+    }
+
+    /**
+     * Record that a body with this digest was stored for url (in full, or as
+     * a duplicate of the owner). Call only once the page is written. url
+     * becomes the owner unless another URL already is; any other digest url
+     * owned before is released.
+     */
+    public synchronized void claim(String digest, String url) throws IOException {
+        String owner = urlByDigest.get(digest);
+        String released = apply(digest, url);
+        if (released != null) {
+            append(released, "");
+        }
+        if (owner == null) {
+            append(digest, url);
+        }
+    }
+
+    // updates both maps, returns the digest url no longer owns (or null)
+    private String apply(String digest, String url) {
+        String owner = urlByDigest.putIfAbsent(digest, url);
+        boolean owns = owner == null || owner.equals(url);
+        String previous = owns ? digestByUrl.put(url, digest) : digestByUrl.remove(url);
+        if (previous == null || previous.equals(digest)) {
+            return null;
+        }
+        urlByDigest.remove(previous, url);
+        return previous;
+    }
+
+    private void append(String digest, String url) throws IOException {
+        synchronized (writer) {
+            writer.write(digest);
+            writer.write('\t');
+            writer.write(url);
+            writer.write('\n');
+        }
+    }
+
+    public int size() {
+        return urlByDigest.size();
+    }
+
+    // see ValidatorStore.flush()
+    public void flush() throws IOException {
+        synchronized (writer) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writer) {
+            writer.close();
+        }
+    }
+
+    /**
+     * SHA-1 of the raw body bytes as hex.
+     */
+    public static String digestOf(byte[] body) {
+        return Hashing.hex(Hashing.sha1(body));
+    }
+}
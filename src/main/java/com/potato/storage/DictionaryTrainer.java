@@ -0,0 +1,80 @@
+package com.potato.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a deflate preset dictionary from sample pages.
+ *
+ * Pages are cut into chunks at every '<' (roughly one tag plus the text
+ * after it). Chunks that occur in several samples are template material
+ * (doctype, head, navigation, footer, scripts) and go into the dictionary,
+ * the most valuable ones (document frequency x length) last, because
+ * deflate encodes short back-references more cheaply.
+ */
+public class DictionaryTrainer {
+
+    // deflate only looks back 32 KB, a bigger dictionary is never used
+    public static final int MAX_DICTIONARY_BYTES = 32 * 1024;
+
+    private static final int MIN_CHUNK = 8;
+    private static final int MAX_CHUNK = 512;
+
+    public static byte[] train(List<byte[]> samples) {
+        // chunk -> {number of samples containing it, last sample that counted it}
+        Map<String, int[]> counts = new HashMap<>();
+        for (int d = 0; d < samples.size(); d++) {
+            byte[] s = samples.get(d);
+            int start = 0;
+            for (int i = 1; i <= s.length; i++) {
+                if (i < s.length && s[i] != '<') {
+                    continue;
+                }
+                int len = i - start;
+                if (len >= MIN_CHUNK && len <= MAX_CHUNK) {
+                    // ISO-8859-1 maps bytes 1:1, so this is just a hashable view of the bytes
+                    String chunk = new String(s, start, len, StandardCharsets.ISO_8859_1);
+                    int[] c = counts.computeIfAbsent(chunk, k -> new int[]{0, -1});
+                    if (c[1] != d) {
+                        c[0]++;
+                        c[1] = d;
+                    }
+                }
+                start = i;
+            }
+        }
+
+        List<Map.Entry<String, int[]>> common = new ArrayList<>();
+        for (Map.Entry<String, int[]> e : counts.entrySet()) {
+            if (e.getValue()[0] >= 2) {
+                common.add(e);
+            }
+        }
+        common.sort((a, b) -> Long.compare(score(b), score(a)));
+
+        List<String> picked = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<String, int[]> e : common) {
+            int len = e.getKey().length();
+            if (total + len > MAX_DICTIONARY_BYTES) {
+                continue;
+            }
+            picked.add(e.getKey());
+            total += len;
+        }
+
+        // best chunks at the end of the dictionary, closest to the data
+        StringBuilder dict = new StringBuilder(total);
+        for (int i = picked.size() - 1; i >= 0; i--) {
+            dict.append(picked.get(i));
+        }
+        return dict.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static long score(Map.Entry<String, int[]> e) {
+        return (long) e.getValue()[0] * e.getKey().length();
+    }
+}
@@ -1,95 +1,168 @@
-package com.potato.storage;
-
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.*;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Collection;
-
-/**
- * Simple file-based page storage.
- *
- * For each fetched page we:
- * 1) create a stable ID from the URL (SHA-1)
- * 2) store the raw HTML in <id>.html
- * 3) store a small JSON metadata file in <id>.json (url, title, links)
- *
- * This makes it easy to inspect what the crawler fetched.
- */
-public class FilePageStorage implements PageStorage {
-
-    private final Path baseDir;
-
-    public FilePageStorage(String baseDir) throws IOException {
-        this.baseDir = Paths.get(baseDir);
-        Files.createDirectories(this.baseDir);
-    }
-
-    @Override
-    public void save(String url,
-                     String title,
-                     String html,
-                     Collection<String> links) throws IOException {
-
-        String id = sha1(url);
-
-        Path htmlFile = baseDir.resolve(id + ".html");
-        Files.writeString(htmlFile, html, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING);
-
-        Path jsonFile = baseDir.resolve(id + ".json");
-        String json = buildJson(url, title, links);
-        Files.writeString(jsonFile, json, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING);
-    }
-
-    /**
-     * Build a very simple JSON object with url, title and links.
-     * We hand-roll it to avoid bringing in a JSON library.
-     */
-    private String buildJson(String url, String title, Collection<String> links) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\n");
-        sb.append("  \"url\": ").append(quote(url)).append(",\n");
-        sb.append("  \"title\": ").append(quote(title)).append(",\n");
-        sb.append("  \"links\": [");
-        boolean first = true;
-        for (String l : links) {
-            if (!first) sb.append(", ");
-            sb.append(quote(l));
-            first = false;
-        }
-        sb.append("]\n");
-        sb.append("}\n");
-        return sb.toString();
-    }
-
-     /**
-     * Escape quotes and backslashes for JSON strings.
-     */
-    private String quote(String s) {
-        if (s == null) return "null";
-        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
-    }
-
-    /**
-     * Create a deterministic ID for a URL using SHA-1.
-     * If SHA-1 is not available (very rare), fall back to hashCode.
-     */
-    private String sha1(String input) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            byte[] bytes = md.digest(input.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            for (byte b : bytes) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            return Integer.toHexString(input.hashCode());
-        }
-    }
-}
+package com.potato.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.potato.util.UrlIdScheme;
+
+/**
+ * Simple file-based page storage.
+ *
+ * For each fetched page we:
+ * 1) create a stable ID from the URL with the configured UrlIdScheme
+ *    (crawler.urlIdScheme: 40-char SHA-1 hex by default, 26-char base32 for murmur128)
+ * 2) store the raw HTML in <id>.html
+ * 3) store a small JSON metadata file in <id>.json (url, title, links)
+ *
+ * A page whose body is an exact copy of an already stored page only gets
+ * a <id>.json with "duplicateOf" pointing at the stored URL.
+ *
+ * This makes it easy to inspect what the crawler fetched.
+ */
+public class FilePageStorage implements PageStorage {
+
+    private final Path baseDir;
+    private final UrlIdScheme idScheme;
+
+    public FilePageStorage(String baseDir) throws IOException {
+        this(baseDir, UrlIdScheme.SHA1);
+    }
+
+    public FilePageStorage(String baseDir, UrlIdScheme idScheme) throws IOException {
+        this.baseDir = Paths.get(baseDir);
+        this.idScheme = idScheme;
+        Files.createDirectories(this.baseDir);
+    }
+
+    @Override
+    public void save(String url,
+                     String title,
+                     String html,
+                     Collection<String> links) throws IOException {
+
+        String id = idScheme.id(url);
+
+        Path htmlFile = baseDir.resolve(id + ".html");
+        Files.writeString(htmlFile, html, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        Path jsonFile = baseDir.resolve(id + ".json");
+        String json = buildJson(url, title, links);
+        Files.writeString(jsonFile, json, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void saveDuplicate(String url, String originalUrl) throws IOException {
+        String id = idScheme.id(url);
+
+        // an older, different version of this URL is not its content anymore
+        Files.deleteIfExists(baseDir.resolve(id + ".html"));
+
+        Path jsonFile = baseDir.resolve(id + ".json");
+        String json = "{\n"
+                + "  \"url\": " + quote(url) + ",\n"
+                + "  \"duplicateOf\": " + quote(originalUrl) + "\n"
+                + "}\n";
+        Files.writeString(jsonFile, json, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Read the links array back out of <id>.json.
+     * The file is always written by buildJson(), so we only need to
+     * understand that exact shape, not general JSON.
+     */
+    @Override
+    public List<String> loadLinks(String url) throws IOException {
+        return loadLinks(url, true);
+    }
+
+    // follows at most one "duplicateOf" reference
+    private List<String> loadLinks(String url, boolean followDuplicate) throws IOException {
+        Path jsonFile = baseDir.resolve(idScheme.id(url) + ".json");
+        if (!Files.exists(jsonFile)) {
+            return List.of();
+        }
+
+        String json = Files.readString(jsonFile, StandardCharsets.UTF_8);
+        int dup = json.indexOf("\"duplicateOf\": \"");
+        if (dup >= 0) {
+            StringBuilder sb = new StringBuilder();
+            readQuoted(json, dup + "\"duplicateOf\": ".length(), sb);
+            String originalUrl = sb.toString();
+            return followDuplicate ? loadLinks(originalUrl, false) : List.of();
+        }
+
+        int start = json.indexOf("\"links\": [");
+        if (start < 0) {
+            return List.of();
+        }
+
+        List<String> links = new ArrayList<>();
+        int i = start + "\"links\": [".length();
+        while (i < json.length() && json.charAt(i) != ']') {
+            if (json.charAt(i) != '"') {
+                i++;
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            i = readQuoted(json, i, sb);
+            links.add(sb.toString());
+        }
+        return links;
+    }
+
+    /**
+     * Unescape the JSON string whose opening quote is at position i into out.
+     * Returns the position just after the closing quote.
+     */
+    private int readQuoted(String json, int i, StringBuilder out) {
+        i++;
+        while (i < json.length() && json.charAt(i) != '"') {
+            char c = json.charAt(i);
+            if (c == '\\' && i + 1 < json.length()) {
+                c = json.charAt(++i);
+            }
+            out.append(c);
+            i++;
+        }
+        return i + 1;
+    }
+
+    /**
+     * Build a very simple JSON object with url, title and links.
+     * We hand-roll it to avoid bringing in a JSON library.
+     */
+    private String buildJson(String url, String title, Collection<String> links) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"url\": ").append(quote(url)).append(",\n");
+        sb.append("  \"title\": ").append(quote(title)).append(",\n");
+        sb.append("  \"links\": [");
+        boolean first = true;
+        for (String l : links) {
+            if (!first) sb.append(", ");
+            sb.append(quote(l));
+            first = false;
+        }
+        sb.append("]\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+     /**
+     * Escape quotes and backslashes for JSON strings.
+     */
+    private String quote(String s) {
+        if (s == null) return "null";
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -1,15 +1,52 @@
-package com.potato.storage;
-
-import java.io.IOException;
-import java.util.Collection;
-
-/**
- * Abstraction for storing fetched pages.
- * Different implementations can store to files, databases, cloud storage, etc.
- */
-public interface PageStorage {
-    void save(String url,
-              String title,
-              String html,
-              Collection<String> links) throws IOException;
-}
+package com.potato.storage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Abstraction for storing fetched pages.
+ * Different implementations can store to files, databases, cloud storage, etc.
+ */
+public interface PageStorage extends AutoCloseable {
+    void save(String url,
+              String title,
+              String html,
+              Collection<String> links) throws IOException;
+
+    /**
+     * Record that url serves exactly the same body as the already stored
+     * originalUrl, without storing the body a second time.
+     */
+    void saveDuplicate(String url, String originalUrl) throws IOException;
+
+    /**
+     * Store several pages at once. Implementations that can write a batch
+     * more cheaply than page by page (one append, one flush) override this.
+     */
+    default void saveBatch(List<StoredPage> pages) throws IOException {
+        for (StoredPage p : pages) {
+            if (p.isDuplicate()) {
+                saveDuplicate(p.url, p.duplicateOf);
+            } else {
+                save(p.url, p.title, p.html, p.links);
+            }
+        }
+    }
+
+    /**
+     * Links recorded for a previously saved page. Used when a recrawl comes
+     * back 304 Not Modified so we can still follow the page's outlinks.
+     * Returns an empty list when nothing is stored for the URL.
+     */
+    default List<String> loadLinks(String url) throws IOException {
+        return List.of();
+    }
+
+    /**
+     * Flush pending writes and release files. No-op for stores that write synchronously.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
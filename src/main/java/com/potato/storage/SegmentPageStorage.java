@@ -0,0 +1,527 @@
+package com.potato.storage;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append-only page storage in large rolling segment files (WARC-like).
+ *
+ * Instead of two small files per page, every page becomes one record
+ * appended to the current segment (segment-00000.dat, segment-00001.dat, ...).
+ * A new segment is started once the current one reaches segmentBytes.
+ *
+ * Record format:
+ *   [int length][int crc32 of payload][payload]
+ *   payload = [url][int dictId][int bodyLength][body, deflated]
+ *   body    = [title][html][int linkCount][link]*
+ *   (strings are [int byteLength][UTF-8 bytes], a null title has length -1)
+ *
+ * Bodies are deflated with a preset dictionary trained on recent pages
+ * (see DictionaryTrainer), so the shared template of a site is mostly
+ * stored once per dictionary instead of once per page. A new dictionary is
+ * trained for every segment, plus once early in the very first segment.
+ * Dictionaries are appended to dictionaries.dat ([int id][int length][bytes])
+ * before the first record that uses them. dictId 0 is plain deflate,
+ * -1 an uncompressed body.
+ *
+ * saveBatch() appends a whole batch with one gathering write. Appends are
+ * serialized; run the store behind a StorageStage so they happen on a
+ * dedicated writer thread, batched, instead of on the fetch workers.
+ *
+ * The offset index (url -> segment + offset) lives in memory and is appended
+ * to index.tsv. On startup the index is loaded and the last segment is scanned
+ * again, which recovers records whose index line was lost and cuts off a
+ * torn record from a crash.
+ *
+ * A duplicate is only an index entry pointing at the original's record.
+ *
+ * Reads use memory-mapped segments and look records up by URL.
+ */
+public class SegmentPageStorage implements PageStorage {
+
+    // pages kept as dictionary training samples, and how many we need for a dictionary
+    private static final int SAMPLE_PAGES = 64;
+    private static final int MIN_SAMPLES = 32;
+    private static final int RAW = -1;
+    // level 3 keeps nearly all of the default level's ratio on HTML at about twice the speed
+    private static final int DEFLATE_LEVEL = 3;
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final boolean compress;
+    // dictionary id -> preset dictionary
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+    // url -> (segment << 40 | offset)
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+    private final Map<Integer, MappedByteBuffer> readMaps = new ConcurrentHashMap<>();
+
+    // guarded by this
+    private FileChannel segment;
+    private int segmentNo;
+    private BufferedWriter indexOut;
+    private boolean closed = false;
+    private final Deflater deflater = new Deflater(DEFLATE_LEVEL);
+    private final byte[] deflateBuf = new byte[16 * 1024];
+    private final List<byte[]> samples = new ArrayList<>();
+    private long sampled = 0;
+    private int currentDict = 0;
+    private FileChannel dictOut;
+
+    public SegmentPageStorage(String baseDir, long segmentBytes) throws IOException {
+        this(baseDir, segmentBytes, true);
+    }
+
+    /**
+     * @param baseDir      directory for segments and index
+     * @param segmentBytes roll over to a new segment after this many bytes
+     * @param compress     deflate page bodies with trained dictionaries
+     */
+    public SegmentPageStorage(String baseDir, long segmentBytes, boolean compress) throws IOException {
+        this.dir = Paths.get(baseDir);
+        this.compress = compress;
+        // offsets and read maps are int-based, so a segment stays below 2 GB
+        this.segmentBytes = Math.min(Integer.MAX_VALUE / 2, Math.max(1024 * 1024, segmentBytes));
+        Files.createDirectories(dir);
+
+        recover();
+    }
+
+    @Override
+    public void save(String url,
+                     String title,
+                     String html,
+                     Collection<String> links) throws IOException {
+        saveBatch(List.of(new StoredPage(url, title, html, new ArrayList<>(links))));
+    }
+
+    @Override
+    public void saveDuplicate(String url, String originalUrl) throws IOException {
+        saveBatch(List.of(StoredPage.duplicate(url, originalUrl)));
+    }
+
+    @Override
+    public synchronized void saveBatch(List<StoredPage> pages) throws IOException {
+        if (closed) {
+            throw new IOException("Storage is closed");
+        }
+        List<ByteBuffer> out = new ArrayList<>(pages.size());
+        long[] locations = new long[pages.size()];
+        long position = segment.position();
+
+        for (int i = 0; i < pages.size(); i++) {
+            if (pages.get(i).isDuplicate()) {
+                continue;
+            }
+            ByteBuffer encoded = encode(pages.get(i));
+            if (position > 0 && position + encoded.remaining() > segmentBytes) {
+                flush(out);
+                roll();
+                position = 0;
+            }
+            locations[i] = ((long) segmentNo << 40) | position;
+            position += encoded.remaining();
+            out.add(encoded);
+        }
+        flush(out);
+
+        // index only after the bytes are written, so readers never see a half record
+        for (int i = 0; i < pages.size(); i++) {
+            StoredPage page = pages.get(i);
+            if (page.isDuplicate()) {
+                // after the records above, so the original may be in the same batch
+                Long original = index.get(page.duplicateOf);
+                if (original == null) {
+                    System.out.println("Duplicate " + page.url + " of unknown page " + page.duplicateOf);
+                    continue;
+                }
+                locations[i] = original;
+            }
+            String url = page.url;
+            index.put(url, locations[i]);
+            indexOut.write(url + "\t" + (locations[i] >>> 40) + "\t" + (locations[i] & 0xFF_FFFF_FFFFL) + "\n");
+        }
+        indexOut.flush();
+    }
+
+    @Override
+    public List<String> loadLinks(String url) throws IOException {
+        StoredPage page = load(url);
+        return (page != null) ? page.links : List.of();
+    }
+
+    /**
+     * The last stored version of url, or null if we never stored it.
+     * For a duplicate this is the original's record (with the original's URL).
+     */
+    public StoredPage load(String url) throws IOException {
+        Long loc = index.get(url);
+        if (loc == null) {
+            return null;
+        }
+        int seg = (int) (loc >>> 40);
+        int offset = (int) (loc & 0xFF_FFFF_FFFFL);
+
+        ByteBuffer buf = mapped(seg, offset + 4);
+        int length = buf.getInt(offset);
+        buf = mapped(seg, offset + 8 + length);
+        return decode(buf, offset + 8, length);
+    }
+
+    // number of distinct URLs stored
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        readMaps.clear();
+        deflater.end();
+        indexOut.close();
+        dictOut.close();
+        segment.close();
+    }
+
+    private void flush(List<ByteBuffer> out) throws IOException {
+        if (out.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] buffers = out.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (ByteBuffer b : buffers) {
+            remaining += b.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= segment.write(buffers);
+        }
+        out.clear();
+    }
+
+    private void roll() throws IOException {
+        segment.force(false);
+        segment.close();
+        segmentNo++;
+        segment = openSegment(segmentNo);
+        if (compress && samples.size() >= MIN_SAMPLES) {
+            newDictionary();
+        }
+    }
+
+    // train a dictionary on the current samples and use it from now on
+    private void newDictionary() throws IOException {
+        byte[] dict = DictionaryTrainer.train(samples);
+        if (dict.length == 0) {
+            return;
+        }
+        int id = currentDict + 1;
+        while (dictionaries.containsKey(id)) {
+            id++;
+        }
+        ByteBuffer header = ByteBuffer.allocate(8).putInt(id).putInt(dict.length).flip();
+        ByteBuffer[] out = {header, ByteBuffer.wrap(dict)};
+        long remaining = 8 + dict.length;
+        while (remaining > 0) {
+            remaining -= dictOut.write(out);
+        }
+        dictionaries.put(id, dict);
+        currentDict = id;
+    }
+
+    // keep a rolling window of recent pages to train the next dictionary on
+    private void sample(byte[] html) throws IOException {
+        if (samples.size() < SAMPLE_PAGES) {
+            samples.add(html);
+        } else {
+            samples.set((int) (sampled % SAMPLE_PAGES), html);
+        }
+        sampled++;
+        // the first segment should not have to wait for a roll-over
+        if (currentDict == 0 && samples.size() == MIN_SAMPLES) {
+            newDictionary();
+        }
+    }
+
+    private void loadDictionaries() throws IOException {
+        Path file = dir.resolve("dictionaries.dat");
+        dictOut = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        int size = (int) dictOut.size();
+        ByteBuffer buf = dictOut.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        int pos = 0;
+        while (pos + 8 <= size) {
+            int id = buf.getInt(pos);
+            int len = buf.getInt(pos + 4);
+            if (len < 0 || pos + 8L + len > size) {
+                break;
+            }
+            byte[] dict = new byte[len];
+            buf.get(pos + 8, dict);
+            dictionaries.put(id, dict);
+            currentDict = Math.max(currentDict, id);
+            pos += 8 + len;
+        }
+        if (pos < size) {
+            dictOut.truncate(pos);
+        }
+        dictOut.position(pos);
+    }
+
+    private FileChannel openSegment(int no) throws IOException {
+        FileChannel ch = FileChannel.open(segmentPath(no),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        ch.position(ch.size());
+        return ch;
+    }
+
+    private Path segmentPath(int no) {
+        return dir.resolve(String.format("segment-%05d.dat", no));
+    }
+
+    /**
+     * Load index.tsv, then rescan the last segment: records written after the
+     * last index flush are indexed again, and anything after the first broken
+     * record is truncated.
+     *
+     * Index lines are written in record order, so a record at or before the
+     * last offset index.tsv points at in that segment already has its line.
+     * Such a record is only indexed if its URL is missing altogether: the
+     * index may hold a newer location for it (a later copy, or a duplicate
+     * pointer), which an older record must not replace.
+     */
+    private void recover() throws IOException {
+        int last = 0;
+        while (Files.exists(segmentPath(last + 1))) {
+            last++;
+        }
+
+        Path indexFile = dir.resolve("index.tsv");
+        // highest offset into the last segment that index.tsv points at
+        long covered = -1;
+        if (Files.exists(indexFile)) {
+            for (String line : Files.readAllLines(indexFile, StandardCharsets.UTF_8)) {
+                String[] p = line.split("\t", -1);
+                if (p.length != 3) {
+                    continue;
+                }
+                try {
+                    long seg = Long.parseLong(p[1]);
+                    long offset = Long.parseLong(p[2]);
+                    index.put(p[0], (seg << 40) | offset);
+                    if (seg == last) {
+                        covered = Math.max(covered, offset);
+                    }
+                } catch (NumberFormatException ignored) {
+                    // torn last line
+                }
+            }
+        }
+
+        loadDictionaries();
+
+        segmentNo = last;
+        segment = openSegment(last);
+        indexOut = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        long size = segment.size();
+        if (size == 0) {
+            return;
+        }
+        ByteBuffer buf = segment.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        int pos = 0;
+        while (pos + 8 <= size) {
+            int length = buf.getInt(pos);
+            if (length < 0 || pos + 8L + length > size || crc(buf, pos + 8, length) != buf.getInt(pos + 4)) {
+                break;
+            }
+            String url = readString(buf, pos + 8);
+            if (pos > covered || !index.containsKey(url)) {
+                long loc = ((long) last << 40) | pos;
+                Long known = index.put(url, loc);
+                if (known == null || known != loc) {
+                    indexOut.write(url + "\t" + last + "\t" + pos + "\n");
+                }
+            }
+            pos += 8 + length;
+        }
+        indexOut.flush();
+        if (pos < size) {
+            System.out.println("Truncating torn record at " + segmentPath(last) + ":" + pos);
+            segment.truncate(pos);
+        }
+        segment.position(pos);
+    }
+
+    // a read-only map of the segment that covers at least `end` bytes
+    private ByteBuffer mapped(int seg, long end) throws IOException {
+        MappedByteBuffer buf = readMaps.get(seg);
+        if (buf != null && buf.capacity() >= end) {
+            return buf;
+        }
+        synchronized (readMaps) {
+            buf = readMaps.get(seg);
+            if (buf == null || buf.capacity() < end) {
+                try (FileChannel ch = FileChannel.open(segmentPath(seg), StandardOpenOption.READ)) {
+                    buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                }
+                if (buf.capacity() < end) {
+                    throw new IOException("Record beyond end of " + segmentPath(seg));
+                }
+                readMaps.put(seg, buf);
+            }
+            return buf;
+        }
+    }
+
+    private ByteBuffer encode(StoredPage r) throws IOException {
+        byte[] url = r.url.getBytes(StandardCharsets.UTF_8);
+        byte[] html = r.html.getBytes(StandardCharsets.UTF_8);
+        byte[] body = encodeBody(r, html);
+
+        int dictId = RAW;
+        byte[] stored = body;
+        if (compress) {
+            sample(html);
+            dictId = currentDict;
+            stored = deflate(body, dictionaries.get(dictId));
+        }
+
+        int size = 4 + url.length + 8 + stored.length;
+        ByteBuffer buf = ByteBuffer.allocate(8 + size);
+        buf.putInt(size).putInt(0);
+        buf.putInt(url.length).put(url);
+        buf.putInt(dictId).putInt(body.length).put(stored);
+        buf.putInt(4, crc(buf, 8, size));
+        buf.flip();
+        return buf;
+    }
+
+    private static byte[] encodeBody(StoredPage r, byte[] html) {
+        byte[] title = (r.title != null) ? r.title.getBytes(StandardCharsets.UTF_8) : null;
+        List<byte[]> links = new ArrayList<>(r.links.size());
+        int size = 4 + (title != null ? title.length : 0) + 4 + html.length + 4;
+        for (String l : r.links) {
+            byte[] b = l.getBytes(StandardCharsets.UTF_8);
+            links.add(b);
+            size += 4 + b.length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        if (title != null) {
+            buf.putInt(title.length).put(title);
+        } else {
+            buf.putInt(-1);
+        }
+        buf.putInt(html.length).put(html);
+        buf.putInt(links.size());
+        for (byte[] b : links) {
+            buf.putInt(b.length).put(b);
+        }
+        return buf.array();
+    }
+
+    private StoredPage decode(ByteBuffer buf, int pos, int length) throws IOException {
+        int end = pos + length;
+        String url = readString(buf, pos);
+        pos += 4 + buf.getInt(pos);
+        int dictId = buf.getInt(pos);
+        int bodyLength = buf.getInt(pos + 4);
+        pos += 8;
+
+        byte[] stored = new byte[end - pos];
+        buf.get(pos, stored);
+        byte[] body = (dictId == RAW) ? stored : inflate(stored, bodyLength, dictId);
+
+        ByteBuffer b = ByteBuffer.wrap(body);
+        pos = 0;
+        String title = readString(b, pos);
+        pos += 4 + Math.max(0, b.getInt(pos));
+        String html = readString(b, pos);
+        pos += 4 + b.getInt(pos);
+        int count = b.getInt(pos);
+        pos += 4;
+        List<String> links = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            links.add(readString(b, pos));
+            pos += 4 + b.getInt(pos);
+        }
+        return new StoredPage(url, title, html, links);
+    }
+
+    // guarded by this (the deflater is reused)
+    private byte[] deflate(byte[] in, byte[] dict) {
+        deflater.reset();
+        if (dict != null) {
+            deflater.setDictionary(dict);
+        }
+        deflater.setInput(in);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(in.length / 4 + 64);
+        while (!deflater.finished()) {
+            int n = deflater.deflate(deflateBuf);
+            out.write(deflateBuf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] inflate(byte[] in, int length, int dictId) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(in);
+            byte[] out = new byte[length];
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int r = inflater.inflate(out, n, length - n);
+                if (r == 0 && inflater.needsDictionary()) {
+                    byte[] dict = dictionaries.get(dictId);
+                    if (dict == null) {
+                        throw new IOException("Missing compression dictionary " + dictId);
+                    }
+                    inflater.setDictionary(dict);
+                } else if (r == 0 && inflater.needsInput()) {
+                    throw new IOException("Truncated compressed record");
+                }
+                n += r;
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed record", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static String readString(ByteBuffer buf, int pos) {
+        int len = buf.getInt(pos);
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        buf.get(pos + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(ByteBuffer buf, int pos, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.slice(pos, length));
+        return (int) crc.getValue();
+    }
+
+}
@@ -0,0 +1,240 @@
+package com.potato.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.potato.util.Metrics;
+
+/**
+ * Storage pipeline stage in front of another PageStorage.
+ *
+ * save() only puts the page on a bounded queue and returns, so disk latency
+ * no longer adds to the fetch loop of the caller. Writer threads take pages
+ * off the queue in batches and hand each batch to the target's saveBatch().
+ *
+ * When the disk cannot keep up the queue fills and save() blocks until there
+ * is room again: the crawl slows down to the speed of the disk instead of
+ * piling up pages in memory.
+ *
+ * Callers can pass an onStored callback: it runs on the writer thread after
+ * the page's batch was written, and not at all if the write fails. State that
+ * must not get ahead of the stored pages (HTTP validators, content digests)
+ * is recorded there. An afterBatch hook runs once per written batch, after
+ * its callbacks, e.g. to flush what they recorded.
+ *
+ * Queue depth, stored pages and batch write latency go to Metrics.
+ */
+public class StorageStage implements PageStorage {
+
+    // max pages handed to the target in one saveBatch()
+    private static final int WRITE_BATCH = 256;
+
+    private final PageStorage target;
+    private final Metrics metrics;
+    private final BlockingQueue<Queued> queue;
+    // queued but not yet written, so loadLinks() sees a page right after save()
+    private final Map<String, StoredPage> pending = new ConcurrentHashMap<>();
+    private final List<Thread> writers = new ArrayList<>();
+    private final Runnable afterBatch;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param target        where the pages are finally written
+     * @param queueCapacity max pages waiting for a writer before save() blocks
+     * @param writerThreads number of writer threads (1 keeps appends in order)
+     * @param metrics       receives queue depth and write latency
+     */
+    public StorageStage(PageStorage target, int queueCapacity, int writerThreads, Metrics metrics) {
+        this(target, queueCapacity, writerThreads, metrics, null);
+    }
+
+    /**
+     * @param afterBatch runs on the writer thread after each written batch and its
+     *                   onStored callbacks (may be null)
+     */
+    public StorageStage(PageStorage target, int queueCapacity, int writerThreads, Metrics metrics,
+                        Runnable afterBatch) {
+        this.target = target;
+        this.afterBatch = afterBatch;
+        this.metrics = metrics;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+
+        for (int i = 0; i < Math.max(1, writerThreads); i++) {
+            Thread t = new Thread(this::writeLoop, "page-writer-" + i);
+            t.setDaemon(true);
+            t.start();
+            writers.add(t);
+        }
+    }
+
+    // a page waiting for a writer, with what to run once it is written
+    private static final class Queued {
+        final StoredPage page;
+        final Runnable onStored;
+
+        Queued(StoredPage page, Runnable onStored) {
+            this.page = page;
+            this.onStored = onStored;
+        }
+    }
+
+    @Override
+    public void save(String url,
+                     String title,
+                     String html,
+                     Collection<String> links) throws IOException {
+        save(url, title, html, links, null);
+    }
+
+    /**
+     * Like save(), then run onStored (may be null) once the page is written.
+     */
+    public void save(String url,
+                     String title,
+                     String html,
+                     Collection<String> links,
+                     Runnable onStored) throws IOException {
+        enqueue(new StoredPage(url, title, html, new ArrayList<>(links)), onStored);
+    }
+
+    private void enqueue(StoredPage page, Runnable onStored) throws IOException {
+        if (closed) {
+            throw new IOException("Storage is closed");
+        }
+        String url = page.url;
+        pending.put(url, page);
+        metrics.storeQueueDepth.incrementAndGet();
+        try {
+            queue.put(new Queued(page, onStored));
+        } catch (InterruptedException e) {
+            metrics.storeQueueDepth.decrementAndGet();
+            pending.remove(url, page);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing " + url, e);
+        }
+    }
+
+    @Override
+    public void saveDuplicate(String url, String originalUrl) throws IOException {
+        saveDuplicate(url, originalUrl, null);
+    }
+
+    /**
+     * Like saveDuplicate(), then run onStored (may be null) once it is written.
+     */
+    public void saveDuplicate(String url, String originalUrl, Runnable onStored) throws IOException {
+        enqueue(StoredPage.duplicate(url, originalUrl), onStored);
+    }
+
+    @Override
+    public List<String> loadLinks(String url) throws IOException {
+        StoredPage page = pending.get(url);
+        if (page == null) {
+            return target.loadLinks(url);
+        }
+        if (!page.isDuplicate()) {
+            return page.links;
+        }
+        StoredPage original = pending.get(page.duplicateOf);
+        return (original != null) ? original.links : target.loadLinks(page.duplicateOf);
+    }
+
+    /**
+     * Write everything still queued, then close the target.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Thread t : writers) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        target.close();
+    }
+
+    private void writeLoop() {
+        List<Queued> queued = new ArrayList<>(WRITE_BATCH);
+        List<StoredPage> batch = new ArrayList<>(WRITE_BATCH);
+        while (true) {
+            Queued first;
+            try {
+                first = queue.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                first = queue.poll();
+            }
+            if (first == null) {
+                if (closed) {
+                    return; // everything queued before close() is written
+                }
+                continue;
+            }
+
+            queued.clear();
+            queued.add(first);
+            queue.drainTo(queued, WRITE_BATCH - 1);
+            metrics.storeQueueDepth.addAndGet(-queued.size());
+            batch.clear();
+            for (Queued q : queued) {
+                batch.add(q.page);
+            }
+
+            long t0 = System.nanoTime();
+            boolean written = false;
+            try {
+                target.saveBatch(batch);
+                written = true;
+                metrics.recordStore(batch.size(), (System.nanoTime() - t0) / 1_000_000L);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Failed to store " + batch.size() + " pages: " + e.getMessage());
+                metrics.pagesStoreFailed.addAndGet(batch.size());
+            } finally {
+                for (StoredPage p : batch) {
+                    pending.remove(p.url, p);
+                }
+            }
+            if (written) {
+                for (Queued q : queued) {
+                    runStored(q);
+                }
+                runAfterBatch();
+            }
+        }
+    }
+
+    private void runAfterBatch() {
+        if (afterBatch == null) {
+            return;
+        }
+        try {
+            afterBatch.run();
+        } catch (RuntimeException e) {
+            System.out.println("Failed to finish a storage batch: " + e.getMessage());
+        }
+    }
+
+    private static void runStored(Queued q) {
+        if (q.onStored == null) {
+            return;
+        }
+        try {
+            q.onStored.run();
+        } catch (RuntimeException e) {
+            System.out.println("Failed to finish storing " + q.page.url + " : " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.potato.storage;
+
+import java.util.List;
+
+/**
+ * One page as handed to (or read back from) a PageStorage.
+ *
+ * A duplicate has no content of its own: duplicateOf names the stored page
+ * with the same body.
+ */
+public class StoredPage {
+    public final String url;
+    public final String title;
+    public final String html;
+    public final List<String> links;
+    public final String duplicateOf;
+
+    public StoredPage(String url, String title, String html, List<String> links) {
+        this(url, title, html, links, null);
+    }
+
+    private StoredPage(String url, String title, String html, List<String> links, String duplicateOf) {
+        this.url = url;
+        this.title = title;
+        this.html = html;
+        this.links = links;
+        this.duplicateOf = duplicateOf;
+    }
+
+    public static StoredPage duplicate(String url, String originalUrl) {
+        return new StoredPage(url, null, null, List.of(), originalUrl);
+    }
+
+    public boolean isDuplicate() {
+        return duplicateOf != null;
+    }
+}
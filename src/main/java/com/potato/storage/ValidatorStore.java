@@ -0,0 +1,145 @@
+package com.potato.storage;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the HTTP validators (ETag / Last-Modified) of fetched pages so a
+ * later crawl can send conditional requests and skip unchanged pages.
+ *
+ * The data lives in memory and in an append-only file next to the pages:
+ *
+ *   <url> TAB <etag> TAB <lastModified>
+ *
+ * Updating a URL just appends a new line; when loading, the last line for a
+ * URL wins. If the file has collected a lot of stale lines it is rewritten
+ * once at startup.
+ */
+public class ValidatorStore implements AutoCloseable {
+
+    // rewrite the file on startup when more than half of its lines are stale
+    private static final double COMPACT_RATIO = 2.0;
+
+    private final Path file;
+    private final Map<String, Validators> byUrl = new ConcurrentHashMap<>();
+    private final BufferedWriter writer;
+
+    public ValidatorStore(String baseDir) throws IOException {
+        Path dir = Paths.get(baseDir);
+        Files.createDirectories(dir);
+        this.file = dir.resolve("validators.tsv");
+
+        int lines = load();
+        if (lines > byUrl.size() * COMPACT_RATIO) {
+            compact();
+        }
+
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Validators from the last successful fetch of url, or null.
+     */
+    public Validators get(String url) {
+        return byUrl.get(url);
+    }
+
+    /**
+     * Remember the validators of a fresh 200 response.
+     * Nothing is stored when the server sent neither header.
+     */
+    public void put(String url, String etag, String lastModified) throws IOException {
+        if (isBlank(etag) && isBlank(lastModified)) {
+            return;
+        }
+        Validators v = new Validators(clean(etag), clean(lastModified));
+        Validators old = byUrl.put(url, v);
+        if (old != null && old.etag.equals(v.etag) && old.lastModified.equals(v.lastModified)) {
+            return; // unchanged, no need to append another line
+        }
+        synchronized (writer) {
+            writer.write(url);
+            writer.write('\t');
+            writer.write(v.etag);
+            writer.write('\t');
+            writer.write(v.lastModified);
+            writer.write('\n');
+        }
+    }
+
+    public int size() {
+        return byUrl.size();
+    }
+
+    /**
+     * Hand appended lines to the file system. Called after every storage
+     * batch, so a crash loses at most the validators of the last batch.
+     */
+    public void flush() throws IOException {
+        synchronized (writer) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writer) {
+            writer.close();
+        }
+    }
+
+    private int load() throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            String[] parts = line.split("\t", -1);
+            if (parts.length != 3) {
+                continue; // torn last line after a crash
+            }
+            byUrl.put(parts[0], new Validators(parts[1], parts[2]));
+        }
+        return lines.size();
+    }
+
+    private void compact() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Validators> e : byUrl.entrySet()) {
+                out.write(e.getKey() + "\t" + e.getValue().etag + "\t" + e.getValue().lastModified + "\n");
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // tabs and newlines would break the line format; real header values never contain them
+    private static String clean(String s) {
+        if (s == null) return "";
+        return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.isBlank();
+    }
+
+    /**
+     * ETag and Last-Modified as sent by the server ("" when missing).
+     */
+    public static class Validators {
+        public final String etag;
+        public final String lastModified;
+
+        public Validators(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+}
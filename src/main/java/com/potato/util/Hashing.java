@@ -0,0 +1,175 @@
+package com.potato.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes and compact text encodings used for page IDs and content digests.
+ *
+ * - sha1() reuses one MessageDigest per thread instead of looking the
+ *   algorithm up again for every call
+ * - murmur128() is MurmurHash3 x64 128-bit over the UTF-16 chars of a
+ *   String, for IDs that only need to be unique, not secure
+ * - hex() and base32() encode through lookup tables into a char[]
+ * - fmix64() spreads the bits of a 64-bit value (MurmurHash3 finalizer)
+ */
+public class Hashing {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // RFC 4648 alphabet, lower case so IDs are safe on case-insensitive file systems
+    private static final char[] BASE32 = "abcdefghijklmnopqrstuvwxyz234567".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    });
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    public static byte[] sha1(byte[] data) {
+        // digest() also resets the instance for the next call on this thread
+        return SHA1.get().digest(data);
+    }
+
+    public static byte[] sha1(String s) {
+        return sha1(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * MurmurHash3 x64 128-bit of the chars of s (no byte[] copy), as 16 bytes.
+     */
+    public static byte[] murmur128(String s) {
+        long[] h = murmur128Longs(s);
+        byte[] out = new byte[16];
+        putLong(out, 0, h[0]);
+        putLong(out, 8, h[1]);
+        return out;
+    }
+
+    /**
+     * First 64 bits of murmur128(s).
+     */
+    public static long murmur64(String s) {
+        return murmur128Longs(s)[0];
+    }
+
+    // MurmurHash3 finalizer
+    public static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public static String hex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            out[j++] = HEX[b >>> 4];
+            out[j++] = HEX[b & 0x0f];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Base32 without padding: 26 chars for 16 bytes, 32 chars for 20 bytes.
+     */
+    public static String base32(byte[] bytes) {
+        char[] out = new char[(bytes.length * 8 + 4) / 5];
+        int buffer = 0;
+        int bits = 0;
+        int j = 0;
+        for (byte b : bytes) {
+            buffer = (buffer << 8) | (b & 0xff);
+            bits += 8;
+            while (bits >= 5) {
+                bits -= 5;
+                out[j++] = BASE32[(buffer >>> bits) & 0x1f];
+            }
+        }
+        if (bits > 0) {
+            out[j] = BASE32[(buffer << (5 - bits)) & 0x1f];
+        }
+        return new String(out);
+    }
+
+    // 8 chars (16 bytes) per block, chars read little-endian like the byte version reads bytes
+    private static long[] murmur128Longs(String s) {
+        int len = s.length();
+        int blocks = len / 8;
+        long h1 = 0;
+        long h2 = 0;
+
+        for (int i = 0; i < blocks; i++) {
+            int p = i * 8;
+            long k1 = chars(s, p, 4);
+            long k2 = chars(s, p + 4, 4);
+
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = blocks * 8;
+        int rest = len - tail;
+        if (rest > 4) {
+            long k2 = chars(s, tail + 4, rest - 4);
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+        }
+        if (rest > 0) {
+            long k1 = chars(s, tail, Math.min(rest, 4));
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+        }
+
+        long byteLen = 2L * len;
+        h1 ^= byteLen;
+        h2 ^= byteLen;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[]{h1, h2};
+    }
+
+    private static long chars(String s, int from, int count) {
+        long k = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            k = (k << 16) | s.charAt(from + i);
+        }
+        return k;
+    }
+
+    private static void putLong(byte[] out, int off, long v) {
+        for (int i = 0; i < 8; i++) {
+            out[off + i] = (byte) (v >>> (56 - 8 * i));
+        }
+    }
+}
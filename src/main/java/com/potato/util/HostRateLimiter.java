@@ -1,38 +1,77 @@
-package com.potato.util;
-
-import java.util.HashMap;
-import java.util.Map;
-
-/**
- * Simple per-host rate limiter.
- *
- * Ensures that we wait at least `delayMs` between two requests
- * to the same host. This is a politeness mechanism so we don't
- * spam a single website when crawling.
- */
-public class HostRateLimiter {
-
-    private final Map<String, Long> lastFetch = new HashMap<>();
-    private final long delayMs;
-
-    public HostRateLimiter(long delayMs) {
-        this.delayMs = delayMs;
-    }
-
-    /**
-     * Block the current thread until it's okay to fetch from this host again.
-     * Synchronized so multiple threads don't fetch the same host too quickly.
-     */
-    public synchronized void acquire(String host) {
-        long now = System.currentTimeMillis();
-        long last = lastFetch.getOrDefault(host, 0L);
-        long wait = last + delayMs - now;
-        if (wait > 0) {
-            try {
-                Thread.sleep(wait);
-            } catch (InterruptedException ignored) {
-            }
-        }
-        lastFetch.put(host, System.currentTimeMillis());
-    }
-}
+package com.potato.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simple per-host rate limiter.
+ *
+ * Ensures that we wait at least `delayMs` between two requests
+ * to the same host. This is a politeness mechanism so we don't
+ * spam a single website when crawling.
+ *
+ * State is one atomic "next allowed" timestamp per host, so checking
+ * host A never waits on a thread that is dealing with host B.
+ */
+public class HostRateLimiter {
+
+    // host -> earliest time (epoch ms) the next request may start
+    private final ConcurrentHashMap<String, AtomicLong> nextAllowed = new ConcurrentHashMap<>();
+    private final long delayMs;
+
+    public HostRateLimiter(long delayMs) {
+        this.delayMs = delayMs;
+    }
+
+    public long getDelayMs() {
+        return delayMs;
+    }
+
+    /**
+     * Try to claim the next request slot for this host without blocking.
+     *
+     * @return 0 if the slot was claimed and the caller may fetch now,
+     *         otherwise the number of ms until the host is ready again
+     */
+    public long tryAcquire(String host) {
+        AtomicLong next = nextAllowed.computeIfAbsent(host, h -> new AtomicLong());
+        while (true) {
+            long now = System.currentTimeMillis();
+            long at = next.get();
+            if (at > now) {
+                return at - now;
+            }
+            if (next.compareAndSet(at, now + delayMs)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * How long until this host is ready again (0 = ready now).
+     * Does not claim the slot.
+     */
+    public long delayFor(String host) {
+        AtomicLong next = nextAllowed.get(host);
+        if (next == null) {
+            return 0;
+        }
+        return Math.max(0, next.get() - System.currentTimeMillis());
+    }
+
+    /**
+     * Block the current thread until it's okay to fetch from this host again.
+     * No lock is held while sleeping, so other hosts are never stalled.
+     */
+    public void acquire(String host) {
+        long wait;
+        while ((wait = tryAcquire(host)) > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
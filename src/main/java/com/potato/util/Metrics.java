@@ -1,76 +1,139 @@
-package com.potato.util;
-
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
-
-/**
- * Lightweight metrics collector for the crawler.
- *
- * Tracks:
- * - pages fetched / failed / skipped
- * - bytes fetched
- * - in-flight requests
- * - average fetch time
- * - errors per host
- *
- * Also prints a periodic snapshot and a final summary on shutdown.
- */
-public class Metrics {
-    public final AtomicLong pagesFetched = new AtomicLong();
-    public final AtomicLong pagesFailed  = new AtomicLong();
-    public final AtomicLong pagesSkipped = new AtomicLong();
-    public final AtomicLong bytesFetched = new AtomicLong();
-    public final AtomicLong inFlight     = new AtomicLong();
-
-    private final AtomicLong fetchCount       = new AtomicLong();
-    private final AtomicLong totalFetchMillis = new AtomicLong();
-
-    public final ConcurrentHashMap<String, AtomicLong> errorsByHost = new ConcurrentHashMap<>();
-
-    private final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
-
-    public void startReporting() {
-        reporter.scheduleAtFixedRate(this::printSnapshot, 30, 30, TimeUnit.SECONDS);
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("\n=== Crawl summary ===");
-            printSnapshot();
-            reporter.shutdownNow();
-        }));
-    }
-
-    public void recordFetch(long millis, long bytes) {
-        pagesFetched.incrementAndGet();
-        fetchCount.incrementAndGet();
-        totalFetchMillis.addAndGet(millis);
-        bytesFetched.addAndGet(bytes);
-    }
-
-    public void recordFailure(String host) {
-        pagesFailed.incrementAndGet();
-        errorsByHost
-                .computeIfAbsent(host, h -> new AtomicLong())
-                .incrementAndGet();
-    }
-
-    public void recordSkip() {
-        pagesSkipped.incrementAndGet();
-    }
-
-    private void printSnapshot() {
-        long fetched = pagesFetched.get();
-        long failed  = pagesFailed.get();
-        long skipped = pagesSkipped.get();
-        long infl    = inFlight.get();
-        long count   = fetchCount.get();
-        long avgMs   = (count == 0) ? 0 : (totalFetchMillis.get() / count);
-        long mb      = bytesFetched.get() / (1024 * 1024);
-
-        System.out.printf(
-                "METRICS | fetched=%d failed=%d skipped=%d inflight=%d avgFetchMs=%d data=%dMB%n",
-                fetched, failed, skipped, infl, avgMs, mb
-        );
-    }
-}
+package com.potato.util;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lightweight metrics collector for the crawler.
+ *
+ * Tracks:
+ * - pages fetched / failed / skipped / unchanged (304) / duplicate bodies / near-duplicates
+ * - links demoted or dropped because their host looks like a crawler trap
+ * - bytes fetched
+ * - in-flight requests
+ * - average fetch time
+ * - storage queue depth and batch write latency
+ * - per pipeline stage: pending tasks, task time, producer wait
+ * - errors per host
+ *
+ * Also prints a periodic snapshot and a final summary on shutdown.
+ */
+public class Metrics {
+    public final AtomicLong pagesFetched = new AtomicLong();
+    public final AtomicLong pagesFailed  = new AtomicLong();
+    public final AtomicLong pagesSkipped = new AtomicLong();
+    public final AtomicLong pagesUnchanged = new AtomicLong();
+    public final AtomicLong pagesDuplicate = new AtomicLong();
+    public final AtomicLong pagesNearDuplicate = new AtomicLong();
+    public final AtomicLong linksDemoted = new AtomicLong();
+    public final AtomicLong linksDropped = new AtomicLong();
+    public final AtomicLong bytesFetched = new AtomicLong();
+    public final AtomicLong inFlight     = new AtomicLong();
+
+    private final AtomicLong fetchCount       = new AtomicLong();
+    private final AtomicLong totalFetchMillis = new AtomicLong();
+
+    // pages waiting in the storage stage, and how long its batch writes take
+    public final AtomicLong storeQueueDepth = new AtomicLong();
+    public final AtomicLong pagesStoreFailed = new AtomicLong();
+    private final AtomicLong storeBatches     = new AtomicLong();
+    private final AtomicLong pagesStored      = new AtomicLong();
+    private final AtomicLong totalStoreMillis = new AtomicLong();
+    private final AtomicLong maxStoreMillis   = new AtomicLong();
+
+    public final ConcurrentHashMap<String, AtomicLong> errorsByHost = new ConcurrentHashMap<>();
+
+    private final List<PipelineStage> stages = new CopyOnWriteArrayList<>();
+
+    private final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+
+    public void startReporting() {
+        reporter.scheduleAtFixedRate(this::printSnapshot, 30, 30, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("\n=== Crawl summary ===");
+            printSnapshot();
+            reporter.shutdownNow();
+        }));
+    }
+
+    public void recordFetch(long millis, long bytes) {
+        pagesFetched.incrementAndGet();
+        fetchCount.incrementAndGet();
+        totalFetchMillis.addAndGet(millis);
+        bytesFetched.addAndGet(bytes);
+    }
+
+    public void recordFailure(String host) {
+        pagesFailed.incrementAndGet();
+        errorsByHost
+                .computeIfAbsent(host, h -> new AtomicLong())
+                .incrementAndGet();
+    }
+
+    public void recordSkip() {
+        pagesSkipped.incrementAndGet();
+    }
+
+    // conditional refetch answered with 304 Not Modified
+    public void recordUnchanged(long millis) {
+        pagesUnchanged.incrementAndGet();
+        fetchCount.incrementAndGet();
+        totalFetchMillis.addAndGet(millis);
+    }
+
+    // body is an exact copy of a page stored under another URL
+    public void recordDuplicate(long millis, long bytes) {
+        pagesDuplicate.incrementAndGet();
+        fetchCount.incrementAndGet();
+        totalFetchMillis.addAndGet(millis);
+        bytesFetched.addAndGet(bytes);
+    }
+
+    // include a pipeline stage in the snapshots
+    public void register(PipelineStage stage) {
+        stages.add(stage);
+    }
+
+    // one batch of pages written by the storage stage
+    public void recordStore(int pages, long millis) {
+        storeBatches.incrementAndGet();
+        pagesStored.addAndGet(pages);
+        totalStoreMillis.addAndGet(millis);
+        maxStoreMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    private void printSnapshot() {
+        long fetched = pagesFetched.get();
+        long failed  = pagesFailed.get();
+        long skipped = pagesSkipped.get();
+        long unchanged = pagesUnchanged.get();
+        long duplicate = pagesDuplicate.get();
+        long infl    = inFlight.get();
+        long count   = fetchCount.get();
+        long avgMs   = (count == 0) ? 0 : (totalFetchMillis.get() / count);
+        long mb      = bytesFetched.get() / (1024 * 1024);
+        long batches = storeBatches.get();
+        long avgStoreMs = (batches == 0) ? 0 : (totalStoreMillis.get() / batches);
+
+        System.out.printf(
+                "METRICS | fetched=%d failed=%d skipped=%d unchanged=%d duplicate=%d inflight=%d avgFetchMs=%d data=%dMB%n",
+                fetched, failed, skipped, unchanged, duplicate, infl, avgMs, mb
+        );
+        System.out.printf(
+                "TRAPS   | nearDuplicates=%d linksDemoted=%d linksDropped=%d%n",
+                pagesNearDuplicate.get(), linksDemoted.get(), linksDropped.get()
+        );
+        System.out.printf(
+                "STORAGE | queued=%d stored=%d failed=%d batches=%d avgBatchMs=%d maxBatchMs=%d%n",
+                storeQueueDepth.get(), pagesStored.get(), pagesStoreFailed.get(), batches, avgStoreMs, maxStoreMillis.get()
+        );
+        for (PipelineStage stage : stages) {
+            System.out.println("STAGE   | " + stage.report());
+        }
+    }
+}
@@ -0,0 +1,561 @@
+package com.potato.util;
+
+import java.net.IDN;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A normalized http(s) URL together with the offsets of its parts, so the
+ * crawler parses a URL once and then reads scheme, host and path from here
+ * instead of building a java.net.URI at every step.
+ *
+ * parse() reads the input in a single pass and normalizes it on the way:
+ * - scheme and host in lower case, https if the scheme is missing
+ * - user info and fragment removed, default ports (80, 443) removed
+ * - percent-escapes of unreserved characters decoded, all other escapes in
+ *   upper case, characters that are not allowed in a URL escaped as UTF-8
+ * - "." and ".." path segments removed, empty path becomes "/"
+ * - tracking parameters (utm_*, gclid, fbclid, ...) removed from the query
+ *
+ * If the input already is in normal form, url is the input String itself
+ * and nothing but this object is allocated.
+ */
+public final class ParsedUrl {
+
+    // query parameters that only identify a campaign or a click, never the content
+    private static final String[] TRACKING_PARAMS = {
+            "gclid", "dclid", "gbraid", "wbraid", "fbclid", "msclkid", "yclid",
+            "mc_cid", "mc_eid", "igshid", "_ga", "_gl"
+    };
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    // ASCII characters copied to the path or query as they are
+    private static final boolean[] PLAIN = new boolean[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            PLAIN[c] = c != '%' && !mustEscape(c);
+        }
+    }
+
+    // the whole normalized URL
+    public final String url;
+    // "http" or "https"
+    public final String scheme;
+    public final String host;
+    // explicit port, or -1 for the scheme's default
+    public final int port;
+
+    private final int pathStart;
+    // index of '?', or -1 without query
+    private final int queryStart;
+
+    private ParsedUrl(String url, String scheme, String host, int port, int pathStart, int queryStart) {
+        this.url = url;
+        this.scheme = scheme;
+        this.host = host;
+        this.port = port;
+        this.pathStart = pathStart;
+        this.queryStart = queryStart;
+    }
+
+    /**
+     * Parse and normalize an absolute http(s) URL.
+     *
+     * @return the parsed URL, or null if it is not a usable http(s) URL
+     */
+    public static ParsedUrl parse(String input) {
+        if (input == null) {
+            return null;
+        }
+        int begin = 0;
+        int end = input.length();
+        while (begin < end && input.charAt(begin) <= ' ') {
+            begin++;
+        }
+        while (end > begin && input.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int hash = input.indexOf('#', begin);
+        if (hash >= 0 && hash < end) {
+            end = hash;
+        }
+        if (begin >= end) {
+            return null;
+        }
+
+        Out out = new Out(input);
+
+        // scheme
+        String scheme = "https";
+        int i = begin;
+        int colon = schemeEnd(input, begin, end);
+        if (colon > 0) {
+            if (input.regionMatches(true, begin, "https", 0, 5) && colon - begin == 5) {
+                scheme = "https";
+            } else if (input.regionMatches(true, begin, "http", 0, 4) && colon - begin == 4) {
+                scheme = "http";
+            } else {
+                return null; // mailto:, javascript:, ftp:, ...
+            }
+            i = colon + 1;
+            if (!input.startsWith("//", i)) {
+                return null;
+            }
+            i += 2;
+        } else if (input.startsWith("//", begin)) {
+            i = begin + 2;
+        }
+        for (int k = 0; k < scheme.length(); k++) {
+            out.put(scheme.charAt(k));
+        }
+        out.put(':');
+        out.put('/');
+        out.put('/');
+
+        // authority: [userinfo@]host[:port]
+        int authorityEnd = i;
+        while (authorityEnd < end && input.charAt(authorityEnd) != '/' && input.charAt(authorityEnd) != '?'
+                && input.charAt(authorityEnd) != '\\') {
+            authorityEnd++;
+        }
+        int at = input.lastIndexOf('@', authorityEnd - 1);
+        if (at >= i) {
+            i = at + 1;
+        }
+        int hostEnd;
+        int portStart = -1;
+        if (i < authorityEnd && input.charAt(i) == '[') {
+            int close = input.indexOf(']', i);
+            if (close < 0 || close >= authorityEnd) {
+                return null;
+            }
+            hostEnd = close + 1;
+        } else {
+            hostEnd = i;
+            while (hostEnd < authorityEnd && input.charAt(hostEnd) != ':') {
+                hostEnd++;
+            }
+        }
+        if (hostEnd < authorityEnd) {
+            if (input.charAt(hostEnd) != ':') {
+                return null;
+            }
+            portStart = hostEnd + 1;
+        }
+        int trimmedHostEnd = hostEnd;
+        while (trimmedHostEnd > i && input.charAt(trimmedHostEnd - 1) == '.') {
+            trimmedHostEnd--;
+        }
+        if (trimmedHostEnd <= i) {
+            return null;
+        }
+        int hostOut = out.len;
+        if (!putHost(out, input, i, trimmedHostEnd)) {
+            return null;
+        }
+        int hostOutEnd = out.len;
+
+        int port = -1;
+        if (portStart >= 0 && portStart < authorityEnd) {
+            if (authorityEnd - portStart > 5) {
+                return null;
+            }
+            int value = 0;
+            for (int k = portStart; k < authorityEnd; k++) {
+                char c = input.charAt(k);
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+                value = value * 10 + (c - '0');
+            }
+            if (value > 65535) {
+                return null;
+            }
+            int defaultPort = scheme.equals("https") ? 443 : 80;
+            if (value != defaultPort) {
+                port = value;
+                out.put(':');
+                String digits = Integer.toString(value);
+                for (int k = 0; k < digits.length(); k++) {
+                    out.put(digits.charAt(k));
+                }
+            }
+        }
+
+        // path, with dot segments removed as we go
+        int pathOut = out.len;
+        i = authorityEnd;
+        int pathEnd = i;
+        while (pathEnd < end && input.charAt(pathEnd) != '?') {
+            pathEnd++;
+        }
+        boolean endsInDir = true;
+        while (i < pathEnd) {
+            int segOut = out.len;
+            out.put('/');
+            i++; // the '/' (or '\', which browsers read as '/')
+            while (i < pathEnd && input.charAt(i) != '/' && input.charAt(i) != '\\') {
+                i = putChar(out, input, i, pathEnd);
+            }
+            int segLen = out.len - segOut - 1;
+            boolean dot = segLen == 1 && out.charAt(segOut + 1) == '.';
+            boolean dotDot = segLen == 2 && out.charAt(segOut + 1) == '.' && out.charAt(segOut + 2) == '.';
+            if (dot || dotDot) {
+                out.truncate(segOut);
+                if (dotDot) {
+                    int prev = out.len - 1;
+                    while (prev >= pathOut && out.charAt(prev) != '/') {
+                        prev--;
+                    }
+                    out.truncate(Math.max(pathOut, prev));
+                }
+                endsInDir = true;
+            } else {
+                endsInDir = false;
+            }
+        }
+        if (endsInDir) {
+            out.put('/');
+        }
+
+        // query without tracking parameters; dropped completely if nothing is left
+        int queryOut = -1;
+        if (pathEnd < end) {
+            i = pathEnd + 1;
+            while (i <= end) {
+                int paramEnd = i;
+                while (paramEnd < end && input.charAt(paramEnd) != '&') {
+                    paramEnd++;
+                }
+                if (paramEnd > i) {
+                    int start = out.len;
+                    out.put(queryOut < 0 ? '?' : '&');
+                    int keyStart = out.len;
+                    while (i < paramEnd) {
+                        i = putChar(out, input, i, paramEnd);
+                    }
+                    if (isTracking(out, keyStart)) {
+                        out.truncate(start);
+                    } else if (queryOut < 0) {
+                        queryOut = start;
+                    }
+                }
+                i = paramEnd + 1;
+            }
+        }
+
+        String url = out.result();
+        return new ParsedUrl(url, scheme, url.substring(hostOut, hostOutEnd), port, pathOut, queryOut);
+    }
+
+    /**
+     * Resolve a link found on this page (RFC 3986 reference resolution).
+     *
+     * @return the parsed target, or null if it is not a usable http(s) URL
+     */
+    public ParsedUrl resolve(String ref) {
+        if (ref == null) {
+            return null;
+        }
+        String r = ref.trim();
+        if (r.isEmpty() || r.charAt(0) == '#') {
+            return this;
+        }
+        if (schemeEnd(r, 0, r.length()) > 0) {
+            return parse(r);
+        }
+        if (r.startsWith("//")) {
+            return parse(scheme + ":" + r);
+        }
+        if (r.charAt(0) == '/' || r.charAt(0) == '\\') {
+            return parse(url.substring(0, pathStart) + r);
+        }
+        int pathEnd = (queryStart < 0) ? url.length() : queryStart;
+        if (r.charAt(0) == '?') {
+            return parse(url.substring(0, pathEnd) + r);
+        }
+        // relative path: replace the last segment of our path
+        int dir = url.lastIndexOf('/', pathEnd - 1);
+        return parse(url.substring(0, dir + 1) + r);
+    }
+
+    // port to connect to: the explicit one or the scheme's default
+    public int effectivePort() {
+        if (port >= 0) {
+            return port;
+        }
+        return scheme.equals("https") ? 443 : 80;
+    }
+
+    // "scheme://host[:port]", e.g. the key for per-site state like robots.txt
+    public String origin() {
+        return url.substring(0, pathStart);
+    }
+
+    public String path() {
+        return (queryStart < 0) ? url.substring(pathStart) : url.substring(pathStart, queryStart);
+    }
+
+    // query without '?', or null
+    public String query() {
+        return (queryStart < 0) ? null : url.substring(queryStart + 1);
+    }
+
+    // path plus "?query", what a request line (and robots.txt matching) uses
+    public String pathAndQuery() {
+        return url.substring(pathStart);
+    }
+
+    // index in url where pathAndQuery() starts, for matching without the substring
+    public int pathIndex() {
+        return pathStart;
+    }
+
+    /**
+     * s with the escaping parse() applies to paths and queries, so that
+     * patterns (e.g. from robots.txt) compare equal to normalized URLs.
+     */
+    public static String normalizeEscapes(String s) {
+        Out out = new Out(s);
+        int i = 0;
+        while (i < s.length()) {
+            i = putChar(out, s, i, s.length());
+        }
+        return out.result();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ParsedUrl && ((ParsedUrl) o).url.equals(url);
+    }
+
+    @Override
+    public int hashCode() {
+        return url.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+
+    // index of the ':' ending a scheme at begin, or -1
+    private static int schemeEnd(String s, int begin, int end) {
+        if (begin >= end || !isAlpha(s.charAt(begin))) {
+            return -1;
+        }
+        for (int i = begin + 1; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == ':') {
+                return i;
+            }
+            if (!isAlpha(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    // lower-cased host; IDNs go through punycode, anything else odd is rejected
+    private static boolean putHost(Out out, String s, int from, int to) {
+        boolean ipv6 = s.charAt(from) == '[';
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80 || c == '%') {
+                String ascii;
+                try {
+                    ascii = IDN.toASCII(URLDecoder.decode(s.substring(from, to), StandardCharsets.UTF_8),
+                            IDN.ALLOW_UNASSIGNED);
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+                out.truncate(out.len - (i - from));
+                for (int k = 0; k < ascii.length(); k++) {
+                    char a = ascii.charAt(k);
+                    if (!isHostChar(a)) {
+                        return false;
+                    }
+                    out.put(Character.toLowerCase(a));
+                }
+                return true;
+            }
+            if (!isHostChar(c) && !(ipv6 && (c == '[' || c == ']' || c == ':'))) {
+                return false;
+            }
+            out.put((c >= 'A' && c <= 'Z') ? (char) (c + 32) : c);
+        }
+        return true;
+    }
+
+    /**
+     * Write the character at s[i] in normal form and return the index after it:
+     * unreserved escapes decoded, other escapes in upper case, characters that
+     * may not appear in a path or query escaped, tabs and newlines dropped.
+     */
+    private static int putChar(Out out, String s, int i, int end) {
+        char c = s.charAt(i);
+        if (c < 0x80 && PLAIN[c]) {
+            out.put(c);
+            return i + 1;
+        }
+        if (c == '%') {
+            int hi = (i + 2 < end) ? hexValue(s.charAt(i + 1)) : -1;
+            int lo = (hi >= 0) ? hexValue(s.charAt(i + 2)) : -1;
+            if (hi < 0 || lo < 0) {
+                putEscaped(out, '%');
+                return i + 1;
+            }
+            int v = (hi << 4) | lo;
+            if (isUnreserved(v)) {
+                out.put((char) v);
+            } else {
+                putEscaped(out, v);
+            }
+            return i + 3;
+        }
+        if (c == '\t' || c == '\n' || c == '\r') {
+            return i + 1;
+        }
+        if (c < 0x80) {
+            putEscaped(out, c);
+            return i + 1;
+        }
+        // non-ASCII: escape its UTF-8 bytes
+        int cp = Character.codePointAt(s, i);
+        int next = i + Character.charCount(cp);
+        if (Character.isSurrogate((char) cp)) {
+            cp = 0xfffd; // lone surrogate
+        }
+        if (cp < 0x800) {
+            putEscaped(out, 0xc0 | (cp >> 6));
+            putEscaped(out, 0x80 | (cp & 0x3f));
+        } else if (cp < 0x10000) {
+            putEscaped(out, 0xe0 | (cp >> 12));
+            putEscaped(out, 0x80 | ((cp >> 6) & 0x3f));
+            putEscaped(out, 0x80 | (cp & 0x3f));
+        } else {
+            putEscaped(out, 0xf0 | (cp >> 18));
+            putEscaped(out, 0x80 | ((cp >> 12) & 0x3f));
+            putEscaped(out, 0x80 | ((cp >> 6) & 0x3f));
+            putEscaped(out, 0x80 | (cp & 0x3f));
+        }
+        return next;
+    }
+
+    private static void putEscaped(Out out, int b) {
+        out.put('%');
+        out.put(HEX[(b >> 4) & 0xf]);
+        out.put(HEX[b & 0xf]);
+    }
+
+    // the query parameter that starts at keyStart (up to the end of out) is a tracking parameter
+    private static boolean isTracking(Out out, int keyStart) {
+        int keyEnd = keyStart;
+        while (keyEnd < out.len && out.charAt(keyEnd) != '=') {
+            keyEnd++;
+        }
+        if (out.regionEqualsIgnoreCase(keyStart, keyStart + 4, "utm_") && keyEnd > keyStart + 4) {
+            return true;
+        }
+        for (String name : TRACKING_PARAMS) {
+            if (keyEnd - keyStart == name.length() && out.regionEqualsIgnoreCase(keyStart, keyEnd, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    private static boolean isUnreserved(int c) {
+        return isAlpha(c) || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    // ASCII characters java.net.URI (and RFC 3986) do not accept unescaped
+    private static boolean mustEscape(char c) {
+        if (c <= ' ' || c == 0x7f) {
+            return true;
+        }
+        switch (c) {
+            case '"': case '<': case '>': case '\\': case '^': case '`':
+            case '{': case '|': case '}': case '[': case ']':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isHostChar(char c) {
+        return isAlpha(c) || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_';
+    }
+
+    private static boolean isAlpha(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Output buffer that stays a view on the input as long as the output is
+     * the same as the input; the StringBuilder is only created at the first
+     * character that differs.
+     */
+    private static final class Out {
+        final String in;
+        StringBuilder sb;
+        int len;
+
+        Out(String in) {
+            this.in = in;
+        }
+
+        void put(char c) {
+            if (sb == null) {
+                if (len < in.length() && in.charAt(len) == c) {
+                    len++;
+                    return;
+                }
+                sb = new StringBuilder(in.length() + 16);
+                sb.append(in, 0, len);
+            }
+            sb.append(c);
+            len++;
+        }
+
+        char charAt(int i) {
+            return (sb == null) ? in.charAt(i) : sb.charAt(i);
+        }
+
+        // shrinking keeps the output a prefix of the input, so no copy is needed yet
+        void truncate(int newLen) {
+            if (sb != null) {
+                sb.setLength(newLen);
+            }
+            len = newLen;
+        }
+
+        boolean regionEqualsIgnoreCase(int from, int to, String s) {
+            if (to > len) {
+                return false;
+            }
+            for (int i = from; i < to; i++) {
+                if (Character.toLowerCase(charAt(i)) != s.charAt(i - from)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String result() {
+            if (sb != null) {
+                return sb.toString();
+            }
+            return (len == in.length()) ? in : in.substring(0, len);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.potato.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stage of the crawl pipeline: its own thread pool plus a bound on the
+ * tasks waiting for it.
+ *
+ * submit() blocks while the stage already holds capacity tasks, so a stage
+ * that cannot keep up slows down the stage in front of it instead of piling
+ * up work (and page bodies) in memory. Each stage is sized on its own, e.g.
+ * many threads for blocking I/O, one per core for parsing.
+ *
+ * Pending tasks, throughput, task time and how long producers had to wait
+ * for room are kept per stage and printed by Metrics.
+ */
+public class PipelineStage implements AutoCloseable {
+
+    private final String name;
+    private final int threads;
+    private final ExecutorService pool;
+    private final Semaphore slots;
+
+    // submitted and not finished yet (queued or running)
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    private PipelineStage(String name, int threads, ExecutorService pool, int capacity) {
+        this.name = name;
+        this.threads = threads;
+        this.pool = pool;
+        this.slots = new Semaphore(Math.max(1, capacity));
+    }
+
+    /**
+     * Stage for CPU-bound work on a ForkJoinPool (tasks run in submission order).
+     */
+    public static PipelineStage forkJoin(String name, int parallelism, int capacity) {
+        int n = Math.max(1, parallelism);
+        AtomicInteger ids = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(n, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName(name + "-" + ids.getAndIncrement());
+            return t;
+        }, null, true);
+        return new PipelineStage(name, n, pool, capacity);
+    }
+
+    /**
+     * Stage on a fixed number of platform threads, for work that may block.
+     */
+    public static PipelineStage threads(String name, int threads, int capacity) {
+        int n = Math.max(1, threads);
+        AtomicInteger ids = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, name + "-" + ids.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        return new PipelineStage(name, n, pool, capacity);
+    }
+
+    /**
+     * Run task on this stage, waiting while the stage is full.
+     *
+     * @return false if the task was not accepted (stage closed or caller interrupted)
+     */
+    public boolean submit(Runnable task) {
+        if (closed) {
+            return false;
+        }
+        long t0 = System.nanoTime();
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        waitNanos.addAndGet(System.nanoTime() - t0);
+        pending.incrementAndGet();
+        try {
+            pool.execute(() -> run(task));
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            slots.release();
+            return false;
+        }
+        return true;
+    }
+
+    private void run(Runnable task) {
+        long t0 = System.nanoTime();
+        try {
+            task.run();
+            completed.incrementAndGet();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            System.out.println("Stage " + name + " task failed: " + e);
+        } finally {
+            busyNanos.addAndGet(System.nanoTime() - t0);
+            pending.decrementAndGet();
+            slots.release();
+        }
+    }
+
+    // tasks submitted and not finished yet
+    public int pending() {
+        return pending.get();
+    }
+
+    /**
+     * Stop accepting tasks and wait up to timeoutMs for the submitted ones.
+     */
+    public void close(long timeoutMs) {
+        closed = true;
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        close(10_000);
+    }
+
+    // one line for the metrics snapshot
+    public String report() {
+        long done = completed.get() + failed.get();
+        double avgMs = (done == 0) ? 0 : busyNanos.get() / 1e6 / done;
+        return String.format("%s threads=%d pending=%d done=%d failed=%d avgMs=%.2f producerWaitMs=%d",
+                name, threads, pending.get(), completed.get(), failed.get(), avgMs, waitNanos.get() / 1_000_000L);
+    }
+}
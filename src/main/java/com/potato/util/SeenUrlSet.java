@@ -0,0 +1,148 @@
+package com.potato.util;
+
+/**
+ * Compact, thread-safe set of URLs the crawler has already seen.
+ *
+ * Instead of full Strings we store 64-bit fingerprints (MurmurHash3, see
+ * Hashing.murmur64) in primitive open-addressing tables (8 bytes per slot,
+ * no per-entry objects). The fingerprint is computed for every discovered
+ * link, so it is a fast non-cryptographic hash regardless of the UrlIdScheme
+ * used for storage, and the set is never persisted, so it can change freely.
+ * The set is split into shards, each with its own lock, so threads
+ * adding different URLs rarely wait on each other.
+ */
+public class SeenUrlSet {
+
+    private static final float MAX_LOAD = 0.75f;
+
+    private final Shard[] shards;
+    private final int shardMask;
+
+    /**
+     * @param shardCount        number of shards, rounded up to a power of two
+     * @param expectedUrls      expected number of URLs (used to pre-size tables)
+     */
+    public SeenUrlSet(int shardCount, long expectedUrls) {
+        int n = Integer.highestOneBit(Math.max(1, shardCount - 1)) << 1;
+        if (shardCount <= 1) {
+            n = 1;
+        }
+        this.shards = new Shard[n];
+        this.shardMask = n - 1;
+        int perShard = (int) Math.min(1 << 30, Math.max(16, expectedUrls / n));
+        for (int i = 0; i < n; i++) {
+            shards[i] = new Shard(perShard);
+        }
+    }
+
+    /**
+     * Atomically add a URL.
+     *
+     * @return true if the URL was not in the set before
+     */
+    public boolean add(String url) {
+        return addFingerprint(Hashing.murmur64(url));
+    }
+
+    public boolean addFingerprint(long fp) {
+        return shardFor(fp).add(fp);
+    }
+
+    public long size() {
+        long total = 0;
+        for (Shard s : shards) {
+            total += s.size();
+        }
+        return total;
+    }
+
+    // approximate heap used by the tables
+    public long memoryBytes() {
+        long total = 0;
+        for (Shard s : shards) {
+            total += s.capacity() * 8L;
+        }
+        return total;
+    }
+
+    /**
+     * Human-readable memory and collision report for the current contents.
+     */
+    public String report() {
+        long n = size();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("SEEN | urls=%d shards=%d memory=%.1fMB (%.1f bytes/url)%n",
+                n, shards.length, memoryBytes() / (1024.0 * 1024.0),
+                n == 0 ? 0.0 : (double) memoryBytes() / n));
+        sb.append(String.format("SEEN | fingerprint collision probability=%.2e%n", collisionProbability(n)));
+        return sb.toString();
+    }
+
+    // birthday bound: chance that any two of n URLs share a 64-bit fingerprint
+    private static double collisionProbability(long n) {
+        return Math.min(1.0, (double) n * n / Math.pow(2, 65));
+    }
+
+    private Shard shardFor(long fp) {
+        // low bits pick the slot inside a shard, so use the high bits for the shard
+        return shards[(int) (fp >>> 40) & shardMask];
+    }
+
+    /**
+     * Open-addressing hash set of longs with linear probing.
+     * 0 marks an empty slot, so a real fingerprint of 0 is stored as 1.
+     */
+    private static class Shard {
+        private long[] table;
+        private int size;
+
+        Shard(int expected) {
+            int cap = Integer.highestOneBit((int) Math.min(1 << 30, (long) (expected / MAX_LOAD) + 1)) << 1;
+            this.table = new long[Math.max(16, cap)];
+        }
+
+        synchronized boolean add(long fp) {
+            if (fp == 0) fp = 1;
+            int mask = table.length - 1;
+            int i = (int) fp & mask;
+            while (true) {
+                long cur = table[i];
+                if (cur == fp) {
+                    return false;
+                }
+                if (cur == 0) {
+                    table[i] = fp;
+                    if (++size > table.length * MAX_LOAD) {
+                        grow();
+                    }
+                    return true;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized int capacity() {
+            return table.length;
+        }
+
+        private void grow() {
+            long[] old = table;
+            long[] next = new long[old.length * 2];
+            int mask = next.length - 1;
+            for (long fp : old) {
+                if (fp != 0) {
+                    int i = (int) fp & mask;
+                    while (next[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    next[i] = fp;
+                }
+            }
+            table = next;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.potato.util;
+
+/**
+ * 64-bit SimHash fingerprints of page text (Charikar).
+ *
+ * Every 3-word shingle of the text is hashed to 64 bits; each bit position
+ * adds +1 or -1 depending on the hash bit, and the sign of the sum becomes
+ * the fingerprint bit. Pages that differ only in a few words (timestamps,
+ * counters, ads) end up a few bits apart, unrelated pages ~32 bits apart.
+ */
+public class SimHash {
+
+    private static final int SHINGLE = 3;
+
+    public static long of(String text) {
+        int[] weights = new int[64];
+        long[] window = new long[SHINGLE];
+        int words = 0;
+
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            // skip to the next word
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i >= n) {
+                break;
+            }
+            long h = 0xcbf29ce484222325L;
+            while (i < n && Character.isLetterOrDigit(text.charAt(i))) {
+                h ^= Character.toLowerCase(text.charAt(i));
+                h *= 0x100000001b3L;
+                i++;
+            }
+            window[words % SHINGLE] = h;
+            words++;
+            if (words >= SHINGLE) {
+                add(weights, shingleHash(window, words));
+            }
+        }
+        if (words > 0 && words < SHINGLE) {
+            // very short text: use what we have as one shingle
+            add(weights, shingleHash(window, words));
+        }
+
+        long fp = 0;
+        for (int b = 0; b < 64; b++) {
+            if (weights[b] > 0) {
+                fp |= 1L << b;
+            }
+        }
+        return fp;
+    }
+
+    // number of differing bits
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    // order-sensitive hash of the last min(words, SHINGLE) words
+    private static long shingleHash(long[] window, int words) {
+        long h = 0;
+        int count = Math.min(words, SHINGLE);
+        for (int k = count; k > 0; k--) {
+            h = h * 31 + window[(words - k) % SHINGLE];
+        }
+        return Hashing.fmix64(h);
+    }
+
+    private static void add(int[] weights, long h) {
+        for (int b = 0; b < 64; b++) {
+            weights[b] += ((h >>> b) & 1L) != 0 ? 1 : -1;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.potato.util;
+
+/**
+ * How a URL is turned into a stable ID for page file names in storage.
+ *
+ * - SHA1: 160-bit SHA-1 of the UTF-8 bytes, IDs are 40 hex chars
+ *   (the names FilePageStorage always used, so older data/ dirs still match)
+ * - MURMUR128: 128-bit MurmurHash3 of the chars, IDs are 26 base32 chars;
+ *   no byte[] copy and no digest, several times cheaper than SHA-1
+ *
+ * The seen-URL sets do not use this, their fingerprints are always murmur64.
+ */
+public enum UrlIdScheme {
+
+    SHA1 {
+        @Override
+        public byte[] hash(String url) {
+            return Hashing.sha1(url);
+        }
+
+        @Override
+        public String id(String url) {
+            return Hashing.hex(hash(url));
+        }
+    },
+
+    MURMUR128 {
+        @Override
+        public byte[] hash(String url) {
+            return Hashing.murmur128(url);
+        }
+
+        @Override
+        public String id(String url) {
+            return Hashing.base32(hash(url));
+        }
+    };
+
+    public abstract byte[] hash(String url);
+
+    // file-name safe text form of hash(url)
+    public abstract String id(String url);
+}
@@ -0,0 +1,60 @@
+package com.potato.fetcher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+class InFlightLimiterTest {
+
+    @Test
+    void idleHostDoesNotWaitBehindABusyOne() {
+        InFlightLimiter limiter = new InFlightLimiter(10, 1);
+        assertTrue(limiter.acquire("a").isDone());
+        CompletableFuture<Void> a2 = limiter.acquire("a");
+        assertFalse(a2.isDone());
+
+        // b has room and nobody waits for b
+        assertTrue(limiter.acquire("b").isDone());
+        assertEquals(2, limiter.inFlight());
+        assertEquals(1, limiter.waiting());
+
+        limiter.release("a");
+        assertTrue(a2.isDone());
+        assertEquals(0, limiter.waiting());
+    }
+
+    @Test
+    void callersOfOneHostAreServedInOrder() {
+        InFlightLimiter limiter = new InFlightLimiter(10, 1);
+        limiter.acquire("a");
+        CompletableFuture<Void> a2 = limiter.acquire("a");
+        CompletableFuture<Void> a3 = limiter.acquire("a");
+
+        limiter.release("a");
+        assertTrue(a2.isDone());
+        assertFalse(a3.isDone());
+        limiter.release("a");
+        assertTrue(a3.isDone());
+    }
+
+    @Test
+    void globalLimitHandsFreedSlotsToTheOldestWaiter() {
+        InFlightLimiter limiter = new InFlightLimiter(2, 2);
+        limiter.acquire("a");
+        limiter.acquire("b");
+        CompletableFuture<Void> c = limiter.acquire("c");
+        CompletableFuture<Void> d = limiter.acquire("d");
+        assertFalse(c.isDone());
+        assertFalse(d.isDone());
+
+        limiter.release("a");
+        assertTrue(c.isDone());
+        assertFalse(d.isDone());
+        limiter.release("b");
+        assertTrue(d.isDone());
+    }
+}
@@ -0,0 +1,106 @@
+package com.potato.parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.jupiter.api.Test;
+
+import com.potato.util.ParsedUrl;
+
+class LinkExtractorTest {
+
+    private static final String PAGE_URL = "https://example.com/dir/page.html";
+
+    private final LinkExtractor extractor = new LinkExtractor();
+
+    // links as the Jsoup path resolves them, normalized the same way
+    private static Set<String> jsoupLinks(String html) {
+        Document doc = Jsoup.parse(html, PAGE_URL);
+        Set<String> links = new HashSet<>();
+        for (Element a : doc.select("a[href]")) {
+            ParsedUrl url = ParsedUrl.parse(a.absUrl("href"));
+            if (url != null) {
+                links.add(url.url);
+            }
+        }
+        return links;
+    }
+
+    private void assertSameLinksAsJsoup(String html) {
+        assertEquals(jsoupLinks(html), extractor.extract(html, PAGE_URL).links, html);
+    }
+
+    @Test
+    void queryParametersThatLookLikeEntities() {
+        String[] hrefs = {
+                "/s?q=x&order=asc",
+                "/s?a=1&copy=2",
+                "/s?a=1&lang=en",
+                "/s?a=1&reg=3&not=4",
+                "/s?a=1&amp=5",
+                "/s?a=1&copy2",
+                "/s?a=1&amp;b=2",
+                "/s?a=1&lt;b",
+                "/s?a=1&copy;b",
+                "/s?x=&nbsp",
+                "/s?t=&euro;",
+                "/s?t=&euro",
+                "/s?n=&#38;&#x26;"
+        };
+        for (String href : hrefs) {
+            assertSameLinksAsJsoup("<a href=\"" + href + "\">x</a>");
+            assertSameLinksAsJsoup("<a href='" + href + "'>x</a>");
+        }
+    }
+
+    @Test
+    void keepsQueryStringIntact() {
+        HtmlParser.ParsedPage page = extractor.extract("<a href=\"/s?q=x&order=asc&lang=en\">x</a>", PAGE_URL);
+        assertEquals(Set.of("https://example.com/s?q=x&order=asc&lang=en"), page.links);
+    }
+
+    @Test
+    void decodesLegacyReferencesInText() {
+        HtmlParser.ParsedPage page = extractor.extract(
+                "<title>A &amp B &copy 2024 &copy2024 &notit; &lt;x&gt;</title>", PAGE_URL);
+        assertEquals(Jsoup.parse("<title>A &amp B &copy 2024 &copy2024 &notit; &lt;x&gt;</title>").title(), page.title);
+    }
+
+    @Test
+    void resolvesLikeJsoup() {
+        assertSameLinksAsJsoup("""
+                <html><head><title>t</title></head><body>
+                <a href="other.html">1</a>
+                <a href="../up.html#frag">2</a>
+                <a href="//cdn.example.com/x">3</a>
+                <a href="?page=2">4</a>
+                <a href="mailto:a@example.com">5</a>
+                <a href="javascript:void(0)">6</a>
+                <a href="  /spaced  ">7</a>
+                <A HREF=/upper>8</A>
+                <a href=unquoted.html>9</a>
+                </body></html>
+                """);
+    }
+
+    @Test
+    void readsBaseCanonicalAndRobots() {
+        HtmlParser.ParsedPage page = extractor.extract("""
+                <html><head>
+                <base href="https://other.example/base/">
+                <link rel="canonical" href="/canonical">
+                <meta name="robots" content="noindex, nofollow">
+                </head><body><a href="a">a</a><script>var s = "<a href='no'>";</script></body></html>
+                """, PAGE_URL);
+        assertEquals(Set.of("https://other.example/base/a"), page.links);
+        assertEquals("https://other.example/canonical", page.canonical);
+        assertTrue(page.noindex);
+        assertTrue(page.nofollow);
+    }
+}
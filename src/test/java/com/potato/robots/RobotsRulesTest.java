@@ -0,0 +1,167 @@
+package com.potato.robots;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.potato.util.ParsedUrl;
+
+class RobotsRulesTest {
+
+    private static RobotsRules parse(String robotsTxt, String userAgent) throws IOException {
+        return RobotsFetcher.parse(new BufferedReader(new StringReader(robotsTxt)), RobotsFetcher.agentToken(userAgent));
+    }
+
+    private static RobotsRules rules(String... lines) throws IOException {
+        return parse("User-agent: *\n" + String.join("\n", lines) + "\n", "PotatorCrawler/1.0");
+    }
+
+    // checks both entry points: a plain path and a ParsedUrl matched in place
+    private static boolean allowed(RobotsRules rules, String pathAndQuery) {
+        boolean byPath = rules.isAllowed(pathAndQuery);
+        boolean byUrl = rules.isAllowed(ParsedUrl.parse("http://example.com" + pathAndQuery));
+        assertEquals(byPath, byUrl, "path and ParsedUrl disagree on " + pathAndQuery);
+        return byPath;
+    }
+
+    @Test
+    void longestMatchWins() throws IOException {
+        RobotsRules r = rules("Disallow: /private", "Allow: /private/public", "Disallow: /private/public/secret");
+        assertFalse(allowed(r, "/private"));
+        assertFalse(allowed(r, "/private/x"));
+        assertTrue(allowed(r, "/private/public/y"));
+        assertFalse(allowed(r, "/private/public/secret/z"));
+        assertTrue(allowed(r, "/other"));
+    }
+
+    @Test
+    void allowWinsATie() throws IOException {
+        RobotsRules r = rules("Disallow: /page", "Allow: /page");
+        assertTrue(allowed(r, "/page"));
+    }
+
+    @Test
+    void noRulesAllowEverything() throws IOException {
+        assertTrue(allowed(rules(), "/anything"));
+        assertTrue(allowed(rules("Disallow:"), "/anything"));
+    }
+
+    @Test
+    void disallowAllStillAllowsRobotsTxt() {
+        RobotsRules r = RobotsRules.disallowAll();
+        assertFalse(allowed(r, "/"));
+        assertFalse(allowed(r, "/a"));
+        assertTrue(allowed(r, "/robots.txt"));
+    }
+
+    @Test
+    void wildcards() throws IOException {
+        RobotsRules r = rules("Disallow: /a*b*c", "Disallow: /*/edit", "Allow: /*.html");
+        assertFalse(allowed(r, "/axxbyyc"));
+        assertFalse(allowed(r, "/abc"));
+        assertTrue(allowed(r, "/ab"));
+        assertFalse(allowed(r, "/x/y/edit"));
+        assertFalse(allowed(r, "/x/edit/more"));
+        assertTrue(allowed(r, "/edit"));
+        assertTrue(allowed(r, "/x/edit.html"));
+    }
+
+    @Test
+    void trailingStarIsIgnored() throws IOException {
+        RobotsRules r = rules("Disallow: /fish*");
+        assertFalse(allowed(r, "/fish"));
+        assertFalse(allowed(r, "/fishheads/yummy.html"));
+        assertTrue(allowed(r, "/Fish.asp"));
+    }
+
+    @Test
+    void dollarAnchorsTheEnd() throws IOException {
+        RobotsRules r = rules("Disallow: /*.pdf$", "Disallow: /exact$");
+        assertFalse(allowed(r, "/doc.pdf"));
+        assertFalse(allowed(r, "/a/b/doc.pdf"));
+        assertTrue(allowed(r, "/doc.pdf/x"));
+        assertTrue(allowed(r, "/doc.pdf?download=1"));
+        assertFalse(allowed(r, "/exact"));
+        assertTrue(allowed(r, "/exactly"));
+    }
+
+    @Test
+    void queryIsMatched() throws IOException {
+        RobotsRules r = rules("Disallow: /*?", "Allow: /search?q=", "Disallow: /*sessionid=");
+        assertTrue(allowed(r, "/page"));
+        assertFalse(allowed(r, "/page?x=1"));
+        assertTrue(allowed(r, "/search?q=potato"));
+        assertFalse(allowed(r, "/list?page=2&sessionid=abc"));
+    }
+
+    @Test
+    void percentEncodingIsNormalized() throws IOException {
+        RobotsRules r = rules("Disallow: /%7euser", "Disallow: /café", "Disallow: /a%2fb");
+        assertFalse(allowed(r, "/~user/x"));
+        assertFalse(allowed(r, "/caf%C3%A9"));
+        assertFalse(allowed(r, "/a%2Fb"));
+        assertTrue(allowed(r, "/a/b"));
+    }
+
+    @Test
+    void ownGroupBeatsGlobalGroup() throws IOException {
+        RobotsRules r = parse("""
+                User-agent: *
+                Disallow: /
+
+                User-agent: potatorcrawler
+                User-agent: other
+                Disallow: /secret
+
+                # groups naming us are merged
+                user-agent: PotatorCrawler/2.0
+                Allow: /secret/ok  # comment
+                Sitemap: http://example.com/sitemap.xml
+                """, "PotatorCrawler/1.0");
+        assertTrue(allowed(r, "/"));
+        assertFalse(allowed(r, "/secret"));
+        assertTrue(allowed(r, "/secret/ok"));
+        assertEquals(List.of("http://example.com/sitemap.xml"), r.getSitemaps());
+    }
+
+    @Test
+    void globalGroupWhenNotNamed() throws IOException {
+        RobotsRules r = parse("User-agent: other\nDisallow: /\n\nUser-agent: *\nDisallow: /tmp\n", "PotatorCrawler/1.0");
+        assertTrue(allowed(r, "/"));
+        assertFalse(allowed(r, "/tmp/x"));
+    }
+
+    @Test
+    void consecutiveAgentLinesShareAGroup() throws IOException {
+        // blank lines do not end a group, the next rule line does
+        RobotsRules r = parse("User-agent: PotatorCrawler\n\nUser-agent: *\nDisallow: /\n", "PotatorCrawler");
+        assertFalse(allowed(r, "/x"));
+    }
+
+    @Test
+    void manyRules() throws IOException {
+        StringBuilder txt = new StringBuilder("User-agent: *\n");
+        for (int i = 0; i < 500; i++) {
+            txt.append("Disallow: /section").append(i).append("/private\n");
+        }
+        txt.append("Allow: /section7/private/open\n");
+        RobotsRules r = parse(txt.toString(), "x");
+        assertFalse(allowed(r, "/section499/private/a"));
+        assertTrue(allowed(r, "/section500/private/a"));
+        assertTrue(allowed(r, "/section7/private/open/a"));
+        assertFalse(allowed(r, "/section7/private/closed"));
+    }
+
+    @Test
+    void agentToken() {
+        assertEquals("PotatorCrawler", RobotsFetcher.agentToken("PotatorCrawler/1.0 (+http://example.com)"));
+        assertEquals("my-bot_x", RobotsFetcher.agentToken("my-bot_x"));
+    }
+}
@@ -0,0 +1,42 @@
+package com.potato.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChangeHistoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void postponeDoublesTheIntervalUpToTheMaximum() throws IOException {
+        ChangeHistory h = new ChangeHistory(dir.toString(), 1000, 500, 3000);
+        h.recordFetch("http://a/", 0, 1, 0);
+        assertEquals(1000, h.nextDelayMs("http://a/"));
+
+        assertTrue(h.postpone("http://a/"));
+        assertEquals(2000, h.nextDelayMs("http://a/"));
+        assertTrue(h.postpone("http://a/"));
+        assertEquals(3000, h.nextDelayMs("http://a/"));
+
+        assertFalse(h.postpone("http://unknown/"));
+    }
+
+    @Test
+    void removedUrlsAreNotRevisited() throws IOException {
+        ChangeHistory h = new ChangeHistory(dir.toString(), 1000, 500, 3000);
+        h.recordFetch("http://a/", 0, 1, 0);
+        h.remove("http://a/");
+        h.save();
+
+        assertFalse(h.contains("http://a/"));
+        assertFalse(new ChangeHistory(dir.toString(), 1000, 500, 3000).contains("http://a/"));
+    }
+}
@@ -0,0 +1,79 @@
+package com.potato.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.potato.scheduler.Frontier.CrawlTask;
+
+class DiskSpillQueueTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void spilledTasksComeBackInOrderAcrossSegments() throws IOException {
+        // 4 tasks on the heap, ~40 byte records in 256 byte segments
+        DiskSpillQueue q = new DiskSpillQueue(dir, "q", 4, 256);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(q.add(new CrawlTask("http://a/page/" + i, i % 7)));
+        }
+        assertEquals(100, q.size());
+        assertTrue(segmentFiles() > 1);
+
+        for (int i = 0; i < 100; i++) {
+            CrawlTask t = q.poll();
+            assertEquals("http://a/page/" + i, t.url);
+            assertEquals(i % 7, t.depth);
+        }
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+        // consumed segments are deleted, only the one still open for appends is left
+        assertTrue(segmentFiles() <= 1);
+        q.close();
+        assertEquals(0, segmentFiles());
+    }
+
+    @Test
+    void addsWhileDrainingQueueBehindSpilledTasks() throws IOException {
+        DiskSpillQueue q = new DiskSpillQueue(dir, "q", 2, 256);
+        for (int i = 0; i < 10; i++) {
+            q.add(new CrawlTask("http://a/" + i, 0));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals("http://a/" + i, q.poll().url);
+        }
+        for (int i = 10; i < 20; i++) {
+            q.add(new CrawlTask("http://a/" + i, 0));
+        }
+        for (int i = 5; i < 20; i++) {
+            assertEquals("http://a/" + i, q.poll().url);
+        }
+        assertTrue(q.isEmpty());
+        q.close();
+    }
+
+    @Test
+    void urlLargerThanASegmentIsRejected() throws IOException {
+        DiskSpillQueue q = new DiskSpillQueue(dir, "q", 1, 64);
+        assertTrue(q.add(new CrawlTask("http://a/1", 0)));
+        assertFalse(q.add(new CrawlTask("http://a/" + "x".repeat(100), 0)));
+        assertEquals(1, q.size());
+        q.close();
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".seg")).count();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.potato.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.potato.scheduler.Frontier.CrawlTask;
+
+class FileFrontierTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysAddPollAndAckRecords() throws IOException, InterruptedException {
+        Path journal = dir.resolve("frontier.log");
+        Files.writeString(journal, String.join("\n",
+                "A 0 http://a/1",
+                "A 1 http://a/2",
+                "A 0 http://a/3",
+                "P http://a/1",
+                "K http://a/1",
+                "P http://a/3",
+                "3 http://a/old-format",
+                ""));
+
+        FileFrontier f = new FileFrontier(journal.toString());
+        // acked is gone, leased-but-not-acked comes back, depth 0 first
+        assertEquals(List.of("http://a/3", "http://a/2", "http://a/old-format"), drain(f));
+        f.close();
+    }
+
+    @Test
+    void tornLastRecordIsIgnoredEvenIfItParses() throws IOException, InterruptedException {
+        Path journal = dir.resolve("frontier.log");
+        Files.writeString(journal, "A 0 http://a/1\nA 0 http://a/2\nK http://a/1\nA 0 http://a/lon");
+
+        FileFrontier f = new FileFrontier(journal.toString());
+        assertEquals(List.of("http://a/2"), drain(f));
+        f.close();
+    }
+
+    @Test
+    void tornAckKeepsTheUrlOutstanding() throws IOException, InterruptedException {
+        Path journal = dir.resolve("frontier.log");
+        Files.writeString(journal, "A 0 http://a/1\nP http://a/1\nK http://a/1");
+
+        FileFrontier f = new FileFrontier(journal.toString());
+        assertEquals(List.of("http://a/1"), drain(f));
+        f.close();
+    }
+
+    @Test
+    void leasedUrlsAreHandedOutAgainAfterRestart() throws IOException, InterruptedException {
+        String path = dir.resolve("frontier.log").toString();
+        FileFrontier f = new FileFrontier(path);
+        f.add("http://a/1", 0);
+        f.add("http://a/2", 0);
+        f.add("http://a/3", 0);
+        CrawlTask first = f.poll(0);
+        f.ack(first);
+        f.poll(0);
+        f.close();
+
+        FileFrontier again = new FileFrontier(path);
+        assertEquals(List.of("http://a/2", "http://a/3"), drain(again));
+        again.close();
+    }
+
+    @Test
+    void groupCommitReachesTheDiskWithoutClose() throws IOException, InterruptedException {
+        Path journal = dir.resolve("frontier.log");
+        FileFrontier f = new FileFrontier(journal.toString());
+        f.add("http://a/1", 0);
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (Files.size(journal) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("A 0 http://a/1" + System.lineSeparator(), Files.readString(journal, StandardCharsets.UTF_8));
+        f.close();
+    }
+
+    @Test
+    void compactionKeepsOnlyOutstandingUrls() throws IOException, InterruptedException {
+        String path = dir.resolve("frontier.log").toString();
+        FileFrontier f = new FileFrontier(path, 10);
+        for (int i = 0; i < 20; i++) {
+            f.add("http://a/" + i, 0);
+        }
+        for (int i = 0; i < 15; i++) {
+            f.ack(f.poll(0));
+        }
+        f.close();
+
+        // 20 adds + 30 poll/ack records, checkpointed every 10
+        assertTrue(Files.readAllLines(Path.of(path)).size() < 10);
+        FileFrontier again = new FileFrontier(path);
+        assertEquals(List.of("http://a/15", "http://a/16", "http://a/17", "http://a/18", "http://a/19"),
+                drain(again));
+        again.close();
+    }
+
+    @Test
+    void crashBetweenSnapshotAndJournalTruncationRecovers() throws IOException, InterruptedException {
+        // the new snapshot was moved into place, the old journal was not truncated yet,
+        // and a temp file of an earlier attempt is still lying around
+        Path journal = dir.resolve("frontier.log");
+        Files.writeString(dir.resolve("frontier.log.snapshot"), "A 0 http://a/2\nA 0 http://a/3\n");
+        Files.writeString(dir.resolve("frontier.log.snapshot.tmp"), "A 0 http://a/ta");
+        Files.writeString(journal, "A 0 http://a/1\nA 0 http://a/2\nP http://a/1\nK http://a/1\nA 0 http://a/3\n");
+
+        FileFrontier f = new FileFrontier(journal.toString());
+        assertEquals(List.of("http://a/2", "http://a/3"), drain(f));
+        f.close();
+    }
+
+    @Test
+    void crashWhileWritingTheSnapshotKeepsTheOldOne() throws IOException, InterruptedException {
+        Path journal = dir.resolve("frontier.log");
+        Files.writeString(dir.resolve("frontier.log.snapshot"), "A 0 http://a/1\n");
+        Files.writeString(dir.resolve("frontier.log.snapshot.tmp"), "A 0 http://a/1\nA 0 http://a/");
+        Files.writeString(journal, "A 0 http://a/2\n");
+
+        FileFrontier f = new FileFrontier(journal.toString());
+        assertEquals(List.of("http://a/1", "http://a/2"), drain(f));
+        f.close();
+    }
+
+    @Test
+    void pollBatchWaitsForAnAdd() throws Exception {
+        FileFrontier f = new FileFrontier(dir.resolve("frontier.log").toString());
+        CompletableFuture<List<CrawlTask>> batch = CompletableFuture.supplyAsync(() -> {
+            try {
+                return f.pollBatch(10, 5000);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(batch.isDone());
+
+        long start = System.currentTimeMillis();
+        f.add("http://a/1", 0);
+        List<CrawlTask> tasks = batch.get();
+        assertEquals(1, tasks.size());
+        assertEquals("http://a/1", tasks.get(0).url);
+        assertTrue(System.currentTimeMillis() - start < 4000);
+
+        assertTrue(f.pollBatch(10, 50).isEmpty());
+        f.close();
+    }
+
+    // poll everything without acking
+    private static List<String> drain(FileFrontier f) throws InterruptedException {
+        List<String> urls = new ArrayList<>();
+        CrawlTask t;
+        while ((t = f.poll(0)) != null) {
+            urls.add(t.url);
+        }
+        assertNull(f.poll(0));
+        return urls;
+    }
+}
@@ -0,0 +1,77 @@
+package com.potato.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.potato.util.HostRateLimiter;
+
+class HostPartitionedFrontierTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void droppedOversizedUrlDoesNotKeepTheFrontierNonEmpty() throws InterruptedException {
+        // one URL on the heap per front queue, 128 byte spill segments
+        HostPartitionedFrontier f = new HostPartitionedFrontier(new HostRateLimiter(0), 1, 1, dir, 1, 128);
+        f.add("http://a/1", 0);
+        f.add("http://a/2", 0);
+        f.add("http://a/3", 0);
+        // has to spill, but does not fit in a segment
+        f.add("http://a/" + "x".repeat(200), 0);
+        assertEquals(3, f.size());
+
+        for (int i = 1; i <= 3; i++) {
+            assertEquals("http://a/" + i, f.poll(100).url);
+        }
+        assertNull(f.poll(0));
+        assertTrue(f.isEmpty());
+        f.close();
+    }
+
+    @Test
+    void hugeHostDoesNotStarveTheOthers() throws InterruptedException {
+        hugeHostDoesNotStarveTheOthers(null);
+    }
+
+    @Test
+    void hugeHostDoesNotStarveTheOthersWithSpilling() throws InterruptedException {
+        hugeHostDoesNotStarveTheOthers(dir);
+    }
+
+    private void hugeHostDoesNotStarveTheOthers(Path spillDir) throws InterruptedException {
+        // 1 s between two fetches of a host, 100 000 URLs of a ahead of b
+        HostPartitionedFrontier f = new HostPartitionedFrontier(new HostRateLimiter(1000), 3, 4, spillDir, 1000);
+        for (int i = 0; i < 100_000; i++) {
+            f.add("http://a/" + i, 0);
+        }
+        f.add("http://b/0", 0);
+        assertEquals(100_001, f.size());
+
+        assertEquals("http://a/0", f.poll(100).url);
+        // a has to wait now, b is next
+        assertEquals("http://b/0", f.poll(100).url);
+        assertEquals(99_999, f.size());
+        f.close();
+    }
+
+    @Test
+    void overflowComesBackInOrder() throws InterruptedException {
+        HostPartitionedFrontier f = new HostPartitionedFrontier(new HostRateLimiter(0), 1, 2, dir, 8, 128);
+        for (int i = 0; i < 1000; i++) {
+            f.add("http://a/" + i, 0);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("http://a/" + i, f.poll(100).url);
+        }
+        assertNull(f.poll(0));
+        assertTrue(f.isEmpty());
+        f.close();
+    }
+}
@@ -0,0 +1,72 @@
+package com.potato.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class NearDuplicateDetectorTest {
+
+    // fingerprints far apart from each other (different in every block)
+    private static long distinct(int i) {
+        long x = (i + 1) * 0x9E3779B97F4A7C15L;
+        return x ^ (x >>> 29);
+    }
+
+    @Test
+    void nearPagesOnTheSameHostAreFlagged() {
+        NearDuplicateDetector d = new NearDuplicateDetector(3, 1, 0.3, 0.7);
+        assertFalse(d.add("h", "http://h/1", 0xF0F0F0F0F0F0F0F0L));
+        assertTrue(d.add("h", "http://h/2", 0xF0F0F0F0F0F0F0F3L));
+        assertFalse(d.add("other", "http://other/1", 0xF0F0F0F0F0F0F0F0L));
+    }
+
+    @Test
+    void changedRevisitDoesNotMatchItsOwnOldVersion() {
+        NearDuplicateDetector d = new NearDuplicateDetector(3, 1, 0.3, 0.7);
+        assertFalse(d.add("h", "http://h/1", 0xF0F0F0F0F0F0F0F0L));
+        assertFalse(d.add("h", "http://h/1", 0xF0F0F0F0F0F0F0F1L));
+        assertFalse(d.add("h", "http://h/1", 0xF0F0F0F0F0F0F0F3L));
+        assertEquals(NearDuplicateDetector.Verdict.OK, d.verdict("h"));
+    }
+
+    @Test
+    void verdictRecoversWhenPagesStopLookingAlike() {
+        NearDuplicateDetector d = new NearDuplicateDetector(3, 4, 0.3, 0.7);
+        for (int i = 0; i < 10; i++) {
+            d.add("h", "http://h/" + i, 0x1234567812345678L ^ (i & 1));
+        }
+        assertEquals(NearDuplicateDetector.Verdict.DROP, d.verdict("h"));
+
+        for (int i = 0; i < 10; i++) {
+            d.add("h", "http://h/" + i, distinct(i));
+        }
+        assertEquals(NearDuplicateDetector.Verdict.OK, d.verdict("h"));
+    }
+
+    @Test
+    void memoryIsBoundedOverAllHosts() {
+        NearDuplicateDetector d = new NearDuplicateDetector(3, 1, 0.3, 0.7, 4096);
+        for (int h = 0; h < 1000; h++) {
+            for (int i = 0; i < 20; i++) {
+                d.add("host" + h, "http://host" + h + "/" + i, distinct(h * 20 + i));
+            }
+        }
+        assertTrue(d.fingerprints() <= 4096, "fingerprints " + d.fingerprints());
+        assertTrue(d.hosts() < 1000);
+        // the most recent host is still known
+        assertTrue(d.add("host999", "http://host999/x", distinct(999 * 20)));
+    }
+
+    @Test
+    void oneHostKeepsItsNewestPages() {
+        NearDuplicateDetector d = new NearDuplicateDetector(3, 1, 0.3, 0.7, 1024);
+        for (int i = 0; i < 5000; i++) {
+            d.add("h", "http://h/" + i, distinct(i));
+        }
+        assertTrue(d.fingerprints() <= 1024, "fingerprints " + d.fingerprints());
+        assertTrue(d.add("h", "http://h/new", distinct(4999)));
+        assertFalse(d.add("h", "http://h/new2", distinct(0)));
+    }
+}
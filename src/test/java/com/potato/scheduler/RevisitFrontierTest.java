@@ -0,0 +1,63 @@
+package com.potato.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.potato.util.HostRateLimiter;
+
+class RevisitFrontierTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void dueRevisitIsClaimedOnce() throws InterruptedException {
+        RevisitFrontier f = new RevisitFrontier(new HostPartitionedFrontier(new HostRateLimiter(0), 1, 4));
+        f.scheduleRevisit("http://a/", 0, System.currentTimeMillis());
+
+        assertEquals("http://a/", f.poll(1000).url);
+        assertTrue(f.claimRevisit("http://a/"));
+        assertFalse(f.claimRevisit("http://a/"));
+        f.close();
+    }
+
+    @Test
+    void postponedRevisitComesBackLater() throws IOException, InterruptedException {
+        ChangeHistory h = new ChangeHistory(dir.toString(), 50, 20, 1000);
+        RevisitFrontier f = new RevisitFrontier(new HostPartitionedFrontier(new HostRateLimiter(0), 1, 4));
+        h.recordFetch("http://a/", 0, 1, 0);
+        f.scheduleRevisit("http://a/", 0, System.currentTimeMillis());
+        assertEquals("http://a/", f.poll(1000).url);
+        assertTrue(f.claimRevisit("http://a/"));
+
+        // skipped this time (e.g. too large): what CrawlerLogic.postponeRevisit does
+        assertTrue(h.postpone("http://a/"));
+        assertEquals(100, h.nextDelayMs("http://a/"));
+        f.scheduleRevisit("http://a/", 0, System.currentTimeMillis() + h.nextDelayMs("http://a/"));
+        assertEquals(1, f.scheduledCount());
+
+        assertNull(f.poll(0));
+        assertEquals("http://a/", f.poll(2000).url);
+        assertTrue(f.claimRevisit("http://a/"));
+        f.close();
+    }
+
+    @Test
+    void removedPageIsNotRescheduled() throws IOException {
+        ChangeHistory h = new ChangeHistory(dir.toString(), 50, 20, 1000);
+        h.recordFetch("http://a/", 0, 1, 0);
+
+        // skipped for good (e.g. no longer HTML): what CrawlerLogic does instead
+        h.remove("http://a/");
+        assertFalse(h.contains("http://a/"));
+        assertFalse(h.postpone("http://a/"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.potato.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ContentDigestStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void firstStoredUrlOwnsTheDigest() throws IOException {
+        try (ContentDigestStore d = new ContentDigestStore(dir.toString())) {
+            d.claim("d1", "http://a/x");
+            d.claim("d1", "http://a/y");
+            assertEquals("http://a/x", d.ownerOf("d1"));
+        }
+    }
+
+    @Test
+    void changedBodyReleasesTheOldDigest() throws IOException {
+        try (ContentDigestStore d = new ContentDigestStore(dir.toString())) {
+            d.claim("A", "http://a/x");
+            d.claim("B", "http://a/x");
+            assertNull(d.ownerOf("A"));
+            assertEquals("http://a/x", d.ownerOf("B"));
+
+            // back to the first body: stored again, not "unchanged"
+            assertNull(d.ownerOf("A"));
+            d.claim("A", "http://a/x");
+            assertEquals("http://a/x", d.ownerOf("A"));
+            assertNull(d.ownerOf("B"));
+        }
+    }
+
+    @Test
+    void ownerTurnedDuplicateReleasesItsDigest() throws IOException {
+        try (ContentDigestStore d = new ContentDigestStore(dir.toString())) {
+            d.claim("A", "http://a/x");
+            d.claim("B", "http://a/y");
+            // x now serves y's body and is stored as its duplicate
+            d.claim("B", "http://a/x");
+            assertNull(d.ownerOf("A"));
+            assertEquals("http://a/y", d.ownerOf("B"));
+        }
+    }
+
+    @Test
+    void releasesAreReplayedOnStartup() throws IOException {
+        try (ContentDigestStore d = new ContentDigestStore(dir.toString())) {
+            d.claim("A", "http://a/x");
+            d.claim("B", "http://a/x");
+            d.claim("A", "http://a/y");
+        }
+        try (ContentDigestStore d = new ContentDigestStore(dir.toString())) {
+            assertEquals("http://a/y", d.ownerOf("A"));
+            assertEquals("http://a/x", d.ownerOf("B"));
+            assertEquals(2, d.size());
+        }
+    }
+
+    @Test
+    void flushedClaimsSurviveWithoutClose() throws IOException {
+        ContentDigestStore d = new ContentDigestStore(dir.toString());
+        d.claim("d1", "http://a/x");
+        d.flush();
+
+        // a second instance reads the file as it would after a crash
+        try (ContentDigestStore reopened = new ContentDigestStore(dir.toString())) {
+            assertEquals("http://a/x", reopened.ownerOf("d1"));
+        }
+        d.close();
+    }
+}
@@ -0,0 +1,68 @@
+package com.potato.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SegmentPageStorageTest {
+
+    @TempDir
+    Path dir;
+
+    private SegmentPageStorage open() throws IOException {
+        return new SegmentPageStorage(dir.toString(), 1024 * 1024, false);
+    }
+
+    @Test
+    void duplicatePointerSurvivesRestart() throws IOException {
+        try (SegmentPageStorage s = open()) {
+            s.save("http://a/x", "X", "<p>x</p>", List.of());
+            s.save("http://a/y", "Y", "<p>y</p>", List.of("http://a/z"));
+            // x now serves the same body as y
+            s.saveDuplicate("http://a/x", "http://a/y");
+        }
+        try (SegmentPageStorage s = open()) {
+            StoredPage x = s.load("http://a/x");
+            assertEquals("http://a/y", x.url);
+            assertEquals("<p>y</p>", x.html);
+        }
+    }
+
+    @Test
+    void newerCopyWinsOverOlderRecord() throws IOException {
+        try (SegmentPageStorage s = open()) {
+            s.save("http://a/x", "old", "<p>1</p>", List.of());
+            s.save("http://a/x", "new", "<p>2</p>", List.of());
+        }
+        try (SegmentPageStorage s = open()) {
+            assertEquals("new", s.load("http://a/x").title);
+        }
+    }
+
+    @Test
+    void recordsWithLostIndexLinesAreRecovered() throws IOException {
+        try (SegmentPageStorage s = open()) {
+            s.save("http://a/1", "one", "<p>1</p>", List.of());
+            s.save("http://a/2", "two", "<p>2</p>", List.of());
+            s.save("http://a/2", "two again", "<p>2</p>", List.of());
+        }
+        // crash before the last two index lines reached the disk
+        Path index = dir.resolve("index.tsv");
+        List<String> lines = Files.readAllLines(index, StandardCharsets.UTF_8);
+        Files.write(index, lines.subList(0, 1), StandardCharsets.UTF_8);
+
+        try (SegmentPageStorage s = open()) {
+            assertEquals("one", s.load("http://a/1").title);
+            assertEquals("two again", s.load("http://a/2").title);
+            assertNull(s.load("http://a/3"));
+        }
+    }
+}
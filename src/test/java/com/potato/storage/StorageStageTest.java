@@ -0,0 +1,83 @@
+package com.potato.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.jupiter.api.Test;
+
+import com.potato.util.Metrics;
+
+class StorageStageTest {
+
+    // records what was written, fails every page whose URL contains "fail"
+    private static final class Target implements PageStorage {
+        final Queue<String> written = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void save(String url, String title, String html, Collection<String> links) {
+        }
+
+        @Override
+        public void saveDuplicate(String url, String originalUrl) {
+        }
+
+        @Override
+        public void saveBatch(List<StoredPage> pages) throws IOException {
+            for (StoredPage p : pages) {
+                if (p.url.contains("fail")) {
+                    throw new IOException("disk full");
+                }
+            }
+            for (StoredPage p : pages) {
+                written.add(p.url);
+            }
+        }
+    }
+
+    @Test
+    void onStoredRunsAfterTheWrite() throws IOException {
+        Target target = new Target();
+        Queue<String> stored = new ConcurrentLinkedQueue<>();
+        StorageStage stage = new StorageStage(target, 16, 1, new Metrics());
+
+        stage.save("http://a/1", "t", "<html>", List.of(), () -> {
+            assertTrue(target.written.contains("http://a/1"));
+            stored.add("http://a/1");
+        });
+        stage.saveDuplicate("http://a/2", "http://a/1", () -> stored.add("http://a/2"));
+        stage.close();
+
+        assertEquals(List.of("http://a/1", "http://a/2"), List.copyOf(stored));
+    }
+
+    @Test
+    void onStoredIsSkippedWhenTheWriteFails() throws IOException {
+        Target target = new Target();
+        Queue<String> stored = new ConcurrentLinkedQueue<>();
+        StorageStage stage = new StorageStage(target, 16, 1, new Metrics());
+
+        stage.save("http://a/fail", "t", "<html>", List.of(), () -> stored.add("http://a/fail"));
+        stage.close();
+
+        assertTrue(stored.isEmpty());
+        assertTrue(target.written.isEmpty());
+    }
+
+    @Test
+    void afterBatchRunsOnceTheCallbacksAreDone() throws IOException {
+        Target target = new Target();
+        Queue<String> events = new ConcurrentLinkedQueue<>();
+        StorageStage stage = new StorageStage(target, 16, 1, new Metrics(), () -> events.add("flush"));
+
+        stage.save("http://a/1", "t", "<html>", List.of(), () -> events.add("http://a/1"));
+        stage.close();
+
+        assertEquals(List.of("http://a/1", "flush"), List.copyOf(events));
+    }
+}
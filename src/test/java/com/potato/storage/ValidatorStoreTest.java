@@ -0,0 +1,28 @@
+package com.potato.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ValidatorStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void flushedValidatorsSurviveWithoutClose() throws IOException {
+        ValidatorStore v = new ValidatorStore(dir.toString());
+        v.put("http://a/x", "\"e1\"", "");
+        v.flush();
+
+        // a second instance reads the file as it would after a crash
+        try (ValidatorStore reopened = new ValidatorStore(dir.toString())) {
+            assertEquals("\"e1\"", reopened.get("http://a/x").etag);
+        }
+        v.close();
+    }
+}